@@ -0,0 +1,93 @@
+/* 
+ * NOTICE OF LICENSE
+ * 
+ * This source file is subject to the Open Software License (OSL 3.0) that is 
+ * bundled with this package in the file LICENSE.txt. It is also available 
+ * through the world-wide-web at http://opensource.org/licenses/osl-3.0.php
+ * If you did not receive a copy of the license and are unable to obtain it 
+ * through the world-wide-web, please send an email to pdiffenderfer@gmail.com 
+ * so we can send you a copy immediately. If you use any of this software please
+ * notify me via my website or email, your feedback is much appreciated. 
+ * 
+ * @copyright   Copyright (c) 2011 Magnos Software (http://www.magnos.org)
+ * @license     http://opensource.org/licenses/osl-3.0.php
+ * 				Open Software License (OSL 3.0)
+ */
+
+package org.magnos.stat;
+
+import java.nio.ByteBuffer;
+
+/**
+ * An aggregator keeps a fixed number of bytes in each point of a database and
+ * updates them as statistics are added to the point. Aggregators are added to
+ * a StatFormat before it is compiled and are stored after the built in values
+ * of each point.
+ * 
+ * The data given to an aggregator is a big-endian buffer of exactly getSize()
+ * bytes, an aggregator should only use absolute gets and puts on the buffer.
+ * 
+ * @author Philip Diffenderfer
+ * @see StatFormat#addAggregator(StatAggregator)
+ * @see StatPoint#getAggregate(int)
+ */
+public interface StatAggregator
+{
+	
+	/**
+	 * Returns the name of the aggregator. The name is part of the signature of
+	 * a database so it must not change once a database is written.
+	 * 
+	 * @return
+	 * 		The name of the aggregator.
+	 */
+	public String getName();
+	
+	/**
+	 * Returns the number of bytes the aggregator keeps in each point.
+	 * 
+	 * @return
+	 * 		The size of the aggregate in bytes.
+	 */
+	public int getSize();
+	
+	/**
+	 * Sets the data of a point to the value of the aggregate of no statistics.
+	 * 
+	 * @param data
+	 * 		The data of the point.
+	 */
+	public void clear(ByteBuffer data);
+	
+	/**
+	 * Adds a statistic to the data of a point.
+	 * 
+	 * @param data
+	 * 		The data of the point.
+	 * @param value
+	 * 		The statistic to add.
+	 */
+	public void add(ByteBuffer data, float value);
+	
+	/**
+	 * Merges the data of another point into the data of a point, afterwards
+	 * the data is the aggregate of the statistics of both points.
+	 * 
+	 * @param data
+	 * 		The data of the point to merge into.
+	 * @param other
+	 * 		The data of the point to merge from.
+	 */
+	public void merge(ByteBuffer data, ByteBuffer other);
+	
+	/**
+	 * Returns the value of the aggregate in the data of a point.
+	 * 
+	 * @param data
+	 * 		The data of the point.
+	 * @return
+	 * 		The value of the aggregate.
+	 */
+	public double getValue(ByteBuffer data);
+	
+}
@@ -16,9 +16,11 @@
 
 package org.magnos.stat;
 
+import java.nio.ByteBuffer;
+import java.util.Arrays;
 import java.util.Iterator;
+import java.util.concurrent.atomic.AtomicInteger;
 
-import org.magnos.data.DataArray;
 import org.magnos.data.DataSet;
 import org.magnos.data.Store;
 import org.magnos.data.var.IntVar;
@@ -47,6 +49,18 @@ import org.magnos.data.var.LongVar;
  *          pointerIndex (newest point)
  * </pre>
  * 
+ * The values of all points, or of a range of points, can be read at once 
+ * with getTimes, getTotals, getSums, getSquares, getMins, and getMaxs. A range
+ * which wraps around the end of the archive is read in two runs. This is most
+ * efficient when the format of the database has a column layout.
+ * 
+ * Points are read by any thread while the StatService changes the archive. 
+ * The StatService increments a version before and after each change, and a 
+ * read which overlaps a change is retried, so every read returns values from 
+ * a single state of the archive without the StatService ever waiting. Each
+ * point returned by the iterator is consistent, but the iterator does not 
+ * keep the archive from moving on while iterating.
+ * 
  * @author Philip Diffenderfer
  *
  */
@@ -68,12 +82,28 @@ public class StatArchive extends DataSet implements Iterable<StatPoint>
 	// The format of the database and archive.
 	private final StatFormat format;
 	
-	// The array of points, which are lazy loaded (not cached in memory).
-	private final DataArray<StatPoint> points;
+	// The point which is read, updated, and written back as statistics are
+	// added to the archive.
+	private final StatPoint scratch;
 	
 	// The index of the archive in the database.
 	private final int index;
 	
+	// The shift which divides by the interval, or -1 if the interval is not a
+	// power of two.
+	private final int intervalShift;
+	
+	// The mask which wraps an index around the archive, or -1 if the number
+	// of points is not a power of two.
+	private final int pointMask;
+	
+	// The version of the archive, incremented before and after each change
+	// so it is odd while the StatService is changing the archive. Readers 
+	// retry if it changed while they were reading. The atomic updates fence
+	// the plain reads and writes of the archive so they stay between the
+	// updates of the version.
+	private final AtomicInteger version = new AtomicInteger();
+	
 	
 	/**
 	 * Instantiates a new StatArchive.
@@ -97,13 +127,17 @@ public class StatArchive extends DataSet implements Iterable<StatPoint>
 		this.pointCount = new IntVar();
 		this.pointerTime = new LongVar();
 		this.pointerIndex = new IntVar();
-		this.points = DataArray.create(StatPoint.class, format.getArchivePoints(index), true);
+		this.scratch = new StatPoint();
 		
 		// Form the data set.
 		this.setStore(store);
 		this.setLocation(format.getArchiveHeaderOffset(index));
-		this.add(interval, pointCount, pointerTime, pointerIndex, points);
+		this.add(interval, pointCount, pointerTime, pointerIndex);
 		this.read();
+		
+		// Divide and wrap with bit operations when possible.
+		this.intervalShift = getShift(interval.get());
+		this.pointMask = (getShift(pointCount.get()) == -1 ? -1 : pointCount.get() - 1);
 	}
 	
 	/**
@@ -125,16 +159,110 @@ public class StatArchive extends DataSet implements Iterable<StatPoint>
 		// Get the actual index of the place to add the statistic.
 		int absolute = index(relative + pointerIndex.get());
 
-		// If the statistic forces old points to be overwritten...
+		beginWrite();
+		try {
+			// If the statistic forces old points to be overwritten...
+			if (relative > 0) {
+				// Clear the given number of points.
+				clear(relative, absolute, event.getTime());
+			}
+	
+			// Get the point, add the statistic, and write it. A single statistic
+			// updates the histogram and estimate in place, a merged point needs
+			// all of them.
+			boolean sketches = (event.getPoint() != null);
+			scratch.read(format, index, absolute, getStore(), sketches);
+			scratch.addEvent(event);
+			scratch.write(format, index, absolute, getStore(), sketches);
+		}
+		finally {
+			endWrite();
+		}
+	}
+	
+	/**
+	 * Advances the pointer of this archive to the given time without adding a
+	 * statistic. Any points that have expired by the given time are cleared, 
+	 * if the given time is still within the newest point nothing changes.
+	 * 
+	 * @param time
+	 * 		The current time in milliseconds since the Unix epoch.
+	 */
+	protected void tick(long time)
+	{
+		// Get the relative index of the point at the given time.
+		int relative = getRelativeIndex(time);
+		
+		// Only clear if the given time is past the newest point.
 		if (relative > 0) {
-			// Clear the given number of points.
-			clear(relative, absolute);
+			beginWrite();
+			try {
+				clear(relative, index(relative + pointerIndex.get()), time);
+			}
+			finally {
+				endWrite();
+			}
 		}
-
-		// Get the point, add the statistic, and write it.
-		StatPoint point = points.get(absolute);
-		point.add(event.getStatistic());
-		points.set(absolute, point);
+	}
+	
+	/**
+	 * Marks the start of a change to the archive, readers which overlap the
+	 * change will retry. This is only invoked by the StatService.
+	 */
+	private void beginWrite()
+	{
+		// The changes which follow can't be moved before the odd version.
+		version.incrementAndGet();
+	}
+	
+	/**
+	 * Marks the end of a change to the archive.
+	 */
+	private void endWrite()
+	{
+		version.incrementAndGet();
+	}
+	
+	/**
+	 * Marks the start of a read of the archive. If the archive is being 
+	 * changed this waits until the change is done. The read must be retried
+	 * if endRead returns false.
+	 * 
+	 * <pre>
+	 * int start;
+	 * do {
+	 *     start = beginRead();
+	 *     // read the archive
+	 * } while (!endRead(start));
+	 * </pre>
+	 * 
+	 * @return
+	 * 		The version to pass to endRead.
+	 */
+	protected int beginRead()
+	{
+		int start = version.get();
+		while ((start & 1) != 0) {
+			Thread.yield();
+			start = version.get();
+		}
+		return start;
+	}
+	
+	/**
+	 * Marks the end of a read of the archive.
+	 * 
+	 * @param start
+	 * 		The version returned by beginRead.
+	 * @return
+	 * 		True if the archive did not change during the read, false if the
+	 * 		read must be retried.
+	 */
+	protected boolean endRead(int start)
+	{
+		// Unlike a volatile read, the reads of the archive before this update
+		// can't be moved past it.
+		return version.compareAndSet(start, start);
 	}
 	
 	/**
@@ -144,8 +272,10 @@ public class StatArchive extends DataSet implements Iterable<StatPoint>
 	 * 		The relative index of the point for the statistic.
 	 * @param absolute
 	 * 		The absolute index of the point for the statistic.
+	 * @param time
+	 * 		The time which the new pointer point should contain.
 	 */
-	private void clear(int relative, int absolute)
+	private void clear(int relative, int absolute, long time)
 	{
 		// Get the last pointer index....
 		int current = pointerIndex.get();
@@ -153,19 +283,21 @@ public class StatArchive extends DataSet implements Iterable<StatPoint>
 		// Restrict the number of points to clear to the max.
 		int max = Math.min(relative, pointCount.get());
 
+		// An empty point to overwrite with.
+		scratch.clear();
+		
 		// Loop through each point and overwrite it.
 		for (int i = 0; i < max; i++) {
 			// The new (actual) index.
 			current = index(current + 1);
 			
-			// Get the point, clear it, and write it.
-			StatPoint point = points.get(current);
-			point.clear();
-			points.set(current, point);
+			// Write the empty point.
+			scratch.write(format, index, current, getStore());
 		}
 		
-		// Increment the pointer time.
-		pointerTime.add(interval.get() * relative);
+		// Move the pointer time to the start of the point containing the time,
+		// the relative index may have been saturated so it's recomputed here.
+		pointerTime.add(floorDiv(time - pointerTime.get(), interval.get()) * interval.get());
 		pointerTime.write(getLocation());
 		
 		// Set the pointer index.
@@ -183,7 +315,11 @@ public class StatArchive extends DataSet implements Iterable<StatPoint>
 	 */
 	private int index(int i) 
 	{
-		return ((i < 0) ? (i - pointCount.get()) : i) % pointCount.get();
+		if (pointMask != -1) {
+			return i & pointMask;
+		}
+		int valid = i % pointCount.get();
+		return (valid < 0 ? valid + pointCount.get() : valid);
 	}
 	
 	/**
@@ -193,11 +329,39 @@ public class StatArchive extends DataSet implements Iterable<StatPoint>
 	 * @param time
 	 * 		The time in the archive to get the index from.
 	 * @return
-	 * 		The relative index of the point in the archive.
+	 * 		The relative index of the point in the archive, between -pointCount
+	 * 		and pointCount inclusive.
 	 */
 	private int getRelativeIndex(long time) 
 	{
-		return (int)Math.ceil((time - pointerTime.get()) / interval.get());
+		long elapsed = time - pointerTime.get();
+		long relative;
+		if (intervalShift != -1) {
+			relative = elapsed >> intervalShift;
+		}
+		else {
+			relative = elapsed / interval.get();
+			// Division rounds towards zero, times before the pointer round down.
+			if (elapsed < 0 && relative * interval.get() != elapsed) {
+				relative--;
+			}
+		}
+		// Saturate after a long gap instead of wrapping around, every point 
+		// is cleared past pointCount so the exact distance no longer matters.
+		return (int)Math.max(-pointCount.get(), Math.min(pointCount.get(), relative));
+	}
+	
+	/**
+	 * Returns the number of bits to shift by to divide by the given value.
+	 * 
+	 * @param x
+	 * 		The value to divide by.
+	 * @return
+	 * 		The shift if the value is a power of two, otherwise -1.
+	 */
+	private static int getShift(long x)
+	{
+		return (x > 0 && (x & (x - 1)) == 0 ? Long.numberOfTrailingZeros(x) : -1);
 	}
 	
 	/**
@@ -232,7 +396,14 @@ public class StatArchive extends DataSet implements Iterable<StatPoint>
 	 */
 	public long getPointerTime() 
 	{
-		return pointerTime.get();
+		long time;
+		int start;
+		do {
+			start = beginRead();
+			time = pointerTime.get();
+		} while (!endRead(start));
+		
+		return time;
 	}
 
 	/**
@@ -243,7 +414,14 @@ public class StatArchive extends DataSet implements Iterable<StatPoint>
 	 */
 	public int getPointerIndex() 
 	{
-		return pointerIndex.get();
+		int index;
+		int start;
+		do {
+			start = beginRead();
+			index = pointerIndex.get();
+		} while (!endRead(start));
+		
+		return index;
 	}
 
 	/**
@@ -258,6 +436,20 @@ public class StatArchive extends DataSet implements Iterable<StatPoint>
 		return pointCount.get();
 	}
 	
+	/**
+	 * Returns the version of this archive, which changes each time a point
+	 * of the archive changes. The version is odd while the archive is being
+	 * changed.
+	 * 
+	 * @return
+	 * 		The version of this archive.
+	 * @see StatCache
+	 */
+	public int getVersion()
+	{
+		return version.get();
+	}
+	
 	/**
 	 * Returns the index of this archive in the database.
 	 * 
@@ -293,12 +485,709 @@ public class StatArchive extends DataSet implements Iterable<StatPoint>
 	 */
 	public StatPoint getPoint(int index) 
 	{
-		StatPoint pt = points.get(index(pointerIndex.get() + index + 1));
-		pt.setStartTime(pointerTime.get() + interval.get() * index);
+		StatPoint pt = new StatPoint();
+		int start;
+		do {
+			start = beginRead();
+			pt.read(format, this.index, index(pointerIndex.get() + index + 1), getStore());
+			pt.setStartTime(pointerTime.get() - interval.get() * (pointCount.get() - 1 - index));
+		} while (!endRead(start));
+		
 		pt.setEndTime(pt.getStartTime() + interval.get());
 		return pt;
 	}
+	
+	/**
+	 * Returns the start time of the point at the given relative index. The
+	 * point at 0 is the oldest point and the last point is the newest.
+	 * 
+	 * @param index
+	 * 		The relative index of the point.
+	 * @return
+	 * 		The start time of the point in milliseconds since the Unix epoch.
+	 */
+	public long getTime(int index)
+	{
+		return getPointerTime() - interval.get() * (pointCount.get() - 1 - index);
+	}
+	
+	/**
+	 * Returns the start time of the oldest point in this archive.
+	 * 
+	 * @return
+	 * 		The time in milliseconds since the Unix epoch.
+	 */
+	public long getStartTime()
+	{
+		return getTime(0);
+	}
+	
+	/**
+	 * Returns the end time of the newest point in this archive.
+	 * 
+	 * @return
+	 * 		The time in milliseconds since the Unix epoch.
+	 */
+	public long getEndTime()
+	{
+		return getPointerTime() + interval.get();
+	}
+	
+	/**
+	 * Reads the points of this archive in the given range of time. The range
+	 * is found and read in a single read sequence, so the points read are
+	 * exactly the points in the range even if the archive moves on.
+	 * 
+	 * @param start
+	 * 		The start of the range, the point the start is in is the first 
+	 * 		point read.
+	 * @param end
+	 * 		The end of the range.
+	 * @param partial
+	 * 		Whether the point the end is in is read, otherwise only the points
+	 * 		which end by the end of the range are read.
+	 * @return
+	 * 		The points in the range from oldest to newest.
+	 */
+	protected StatSeries read(long start, long end, boolean partial)
+	{
+		StatSeries series;
+		int sequence;
+		do {
+			sequence = beginRead();
+			
+			long step = interval.get();
+			long oldest = pointerTime.get() - step * (pointCount.get() - 1);
+			long last = (partial ? floorDiv(end - 1 - oldest, step) : floorDiv(end - oldest, step) - 1);
+			long first = Math.max(0, floorDiv(start - oldest, step));
+			last = Math.min(last, pointCount.get() - 1);
+			
+			int count = (int)Math.max(0, last - first + 1);
+			series = new StatSeries(count);
+			if (count > 0) {
+				read((int)first, count, series, 0);
+			}
+		} while (!endRead(sequence));
+		
+		return series;
+	}
+	
+	/**
+	 * Returns the largest long less than or equal to x divided by y.
+	 */
+	private static long floorDiv(long x, long y)
+	{
+		long q = x / y;
+		return ((x % y != 0 && (x < 0) != (y < 0)) ? q - 1 : q);
+	}
+	
+	/**
+	 * Reads a range of points into the given series.
+	 * 
+	 * @param first
+	 * 		The relative index of the first point to read.
+	 * @param count
+	 * 		The number of points to read.
+	 * @param series
+	 * 		The series to read the points into.
+	 * @param offset
+	 * 		The index in the series of the first point.
+	 */
+	protected void read(int first, int count, StatSeries series, int offset)
+	{
+		int start;
+		do {
+			start = beginRead();
+			getTimes(first, count, series.getStartTimes(), offset);
+			getTotals(first, count, series.getTotals(), offset);
+			getSums(first, count, series.getSums(), offset);
+			getMins(first, count, series.getMins(), offset);
+			getMaxs(first, count, series.getMaxs(), offset);
+		} while (!endRead(start));
+		
+		for (int i = offset; i < offset + count; i++) {
+			series.getEndTimes()[i] = series.getStartTimes()[i] + interval.get();
+		}
+	}
 
+	/**
+	 * Reads the start times of all points in the archive into the given array.
+	 * The time at 0 is of the oldest point and the last time is of the newest.
+	 * 
+	 * @param times
+	 * 		The array to read the times into, must have at least as many 
+	 * 		elements as there are points in the archive.
+	 */
+	public void getTimes(long[] times)
+	{
+		getTimes(0, pointCount.get(), times, 0);
+	}
+	
+	/**
+	 * Reads the start times of a range of points into the given array.
+	 * 
+	 * @param first
+	 * 		The relative index of the first point, where 0 is the oldest.
+	 * @param count
+	 * 		The number of points to read.
+	 * @param times
+	 * 		The array to read the times into.
+	 * @param offset
+	 * 		The index in the array of the first time.
+	 */
+	public void getTimes(int first, int count, long[] times, int offset)
+	{
+		checkRange(first, count);
+		
+		long start = getTime(first);
+		for (int i = 0; i < count; i++) {
+			times[offset + i] = start + interval.get() * i;
+		}
+	}
+	
+	/**
+	 * Reads the totals of all points in the archive into the given array. The
+	 * total at 0 is of the oldest point and the last total is of the newest.
+	 * 
+	 * @param totals
+	 * 		The array to read the totals into, must have at least as many 
+	 * 		elements as there are points in the archive.
+	 */
+	public void getTotals(long[] totals)
+	{
+		getTotals(0, pointCount.get(), totals, 0);
+	}
+	
+	/**
+	 * Reads the totals of a range of points into the given array.
+	 * 
+	 * @param first
+	 * 		The relative index of the first point, where 0 is the oldest.
+	 * @param count
+	 * 		The number of points to read.
+	 * @param totals
+	 * 		The array to read the totals into.
+	 * @param offset
+	 * 		The index in the array of the first total.
+	 */
+	public void getTotals(int first, int count, long[] totals, int offset)
+	{
+		checkRange(first, count);
+		
+		int sequence;
+		do {
+			sequence = beginRead();
+			int start = index(pointerIndex.get() + 1 + first);
+			int run = Math.min(count, pointCount.get() - start);
+			readTotals(start, run, totals, offset);
+			readTotals(0, count - run, totals, offset + run);
+		} while (!endRead(sequence));
+	}
+	
+	/**
+	 * Reads the sums of all points in the archive into the given array. The
+	 * sum at 0 is of the oldest point and the last sum is of the newest. If 
+	 * the format does not keep the sum the array is filled with NaN.
+	 * 
+	 * @param sums
+	 * 		The array to read the sums into, must have at least as many 
+	 * 		elements as there are points in the archive.
+	 */
+	public void getSums(double[] sums)
+	{
+		getSums(0, pointCount.get(), sums, 0);
+	}
+	
+	/**
+	 * Reads the sums of a range of points into the given array. If the format
+	 * does not keep the sum the range is filled with NaN.
+	 * 
+	 * @param first
+	 * 		The relative index of the first point, where 0 is the oldest.
+	 * @param count
+	 * 		The number of points to read.
+	 * @param sums
+	 * 		The array to read the sums into.
+	 * @param offset
+	 * 		The index in the array of the first sum.
+	 */
+	public void getSums(int first, int count, double[] sums, int offset)
+	{
+		getDoubles(StatFormat.FIELD_SUM, first, count, sums, offset);
+	}
+	
+	/**
+	 * Reads the sums of all points in the archive into the given array. The
+	 * sums of a database of longs are exact, other sums are rounded to the
+	 * nearest long. If the format does not keep the sum the array is filled 
+	 * with zeros.
+	 * 
+	 * @param sums
+	 * 		The array to read the sums into, must have at least as many 
+	 * 		elements as there are points in the archive.
+	 * @see StatFormat#setValueType(StatValue)
+	 */
+	public void getSums(long[] sums)
+	{
+		getSums(0, pointCount.get(), sums, 0);
+	}
+	
+	/**
+	 * Reads the sums of a range of points into the given array. If the format
+	 * does not keep the sum the range is filled with zeros.
+	 * 
+	 * @param first
+	 * 		The relative index of the first point, where 0 is the oldest.
+	 * @param count
+	 * 		The number of points to read.
+	 * @param sums
+	 * 		The array to read the sums into.
+	 * @param offset
+	 * 		The index in the array of the first sum.
+	 */
+	public void getSums(int first, int count, long[] sums, int offset)
+	{
+		getLongs(StatFormat.FIELD_SUM, first, count, sums, offset);
+	}
+	
+	/**
+	 * Reads the sum of the squares of the statistics of all points in the 
+	 * archive into the given array. The sum of squares at 0 is of the oldest 
+	 * point and the last is of the newest. If the format does not keep the 
+	 * sum of squares the array is filled with NaN.
+	 * 
+	 * @param squares
+	 * 		The array to read the sums of squares into, must have at least as
+	 * 		many elements as there are points in the archive.
+	 * @see StatFormat#hasSquares()
+	 */
+	public void getSquares(double[] squares)
+	{
+		getSquares(0, pointCount.get(), squares, 0);
+	}
+	
+	/**
+	 * Reads the sum of the squares of the statistics of a range of points 
+	 * into the given array. If the format does not keep the sum of squares 
+	 * the range is filled with NaN.
+	 * 
+	 * @param first
+	 * 		The relative index of the first point, where 0 is the oldest.
+	 * @param count
+	 * 		The number of points to read.
+	 * @param squares
+	 * 		The array to read the sums of squares into.
+	 * @param offset
+	 * 		The index in the array of the first sum of squares.
+	 */
+	public void getSquares(int first, int count, double[] squares, int offset)
+	{
+		getDoubles(StatFormat.FIELD_SQUARES, first, count, squares, offset);
+	}
+	
+	/**
+	 * Reads the smallest statistic of all points in the archive into the
+	 * given array. The minimum at 0 is of the oldest point and the last 
+	 * minimum is of the newest. If the format does not keep the extremes the
+	 * array is filled with NaN.
+	 * 
+	 * @param mins
+	 * 		The array to read the minimums into, must have at least as many 
+	 * 		elements as there are points in the archive.
+	 */
+	public void getMins(float[] mins)
+	{
+		getMins(0, pointCount.get(), mins, 0);
+	}
+	
+	/**
+	 * Reads the smallest statistic of a range of points into the given array.
+	 * If the format does not keep the minimum the range is filled with NaN.
+	 * 
+	 * @param first
+	 * 		The relative index of the first point, where 0 is the oldest.
+	 * @param count
+	 * 		The number of points to read.
+	 * @param mins
+	 * 		The array to read the minimums into.
+	 * @param offset
+	 * 		The index in the array of the first minimum.
+	 */
+	public void getMins(int first, int count, float[] mins, int offset)
+	{
+		getFloats(StatFormat.FIELD_MIN, first, count, mins, offset);
+	}
+	
+	/**
+	 * Reads the largest statistic of all points in the archive into the
+	 * given array. The maximum at 0 is of the oldest point and the last 
+	 * maximum is of the newest. If the format does not keep the extremes the
+	 * array is filled with NaN.
+	 * 
+	 * @param maxs
+	 * 		The array to read the maximums into, must have at least as many 
+	 * 		elements as there are points in the archive.
+	 */
+	public void getMaxs(float[] maxs)
+	{
+		getMaxs(0, pointCount.get(), maxs, 0);
+	}
+	
+	/**
+	 * Reads the largest statistic of a range of points into the given array.
+	 * If the format does not keep the maximum the range is filled with NaN.
+	 * 
+	 * @param first
+	 * 		The relative index of the first point, where 0 is the oldest.
+	 * @param count
+	 * 		The number of points to read.
+	 * @param maxs
+	 * 		The array to read the maximums into.
+	 * @param offset
+	 * 		The index in the array of the first maximum.
+	 */
+	public void getMaxs(int first, int count, float[] maxs, int offset)
+	{
+		getFloats(StatFormat.FIELD_MAX, first, count, maxs, offset);
+	}
+	
+	/**
+	 * Reads the smallest statistic of all points in the archive into the
+	 * given array at the precision of the database. If the format does not 
+	 * keep the extremes the array is filled with NaN.
+	 * 
+	 * @param mins
+	 * 		The array to read the minimums into, must have at least as many 
+	 * 		elements as there are points in the archive.
+	 * @see StatFormat#setValueType(StatValue)
+	 */
+	public void getMins(double[] mins)
+	{
+		getMins(0, pointCount.get(), mins, 0);
+	}
+	
+	/**
+	 * Reads the smallest statistic of a range of points into the given array
+	 * at the precision of the database. If the format does not keep the 
+	 * minimum the range is filled with NaN.
+	 * 
+	 * @param first
+	 * 		The relative index of the first point, where 0 is the oldest.
+	 * @param count
+	 * 		The number of points to read.
+	 * @param mins
+	 * 		The array to read the minimums into.
+	 * @param offset
+	 * 		The index in the array of the first minimum.
+	 */
+	public void getMins(int first, int count, double[] mins, int offset)
+	{
+		getDoubles(StatFormat.FIELD_MIN, first, count, mins, offset);
+	}
+	
+	/**
+	 * Reads the largest statistic of all points in the archive into the
+	 * given array at the precision of the database. If the format does not 
+	 * keep the extremes the array is filled with NaN.
+	 * 
+	 * @param maxs
+	 * 		The array to read the maximums into, must have at least as many 
+	 * 		elements as there are points in the archive.
+	 * @see StatFormat#setValueType(StatValue)
+	 */
+	public void getMaxs(double[] maxs)
+	{
+		getMaxs(0, pointCount.get(), maxs, 0);
+	}
+	
+	/**
+	 * Reads the largest statistic of a range of points into the given array
+	 * at the precision of the database. If the format does not keep the 
+	 * maximum the range is filled with NaN.
+	 * 
+	 * @param first
+	 * 		The relative index of the first point, where 0 is the oldest.
+	 * @param count
+	 * 		The number of points to read.
+	 * @param maxs
+	 * 		The array to read the maximums into.
+	 * @param offset
+	 * 		The index in the array of the first maximum.
+	 */
+	public void getMaxs(int first, int count, double[] maxs, int offset)
+	{
+		getDoubles(StatFormat.FIELD_MAX, first, count, maxs, offset);
+	}
+	
+	/**
+	 * Throws an IndexOutOfBoundsException if the given range of relative
+	 * indices is not in the archive.
+	 */
+	private void checkRange(int first, int count)
+	{
+		if (first < 0 || count < 0 || first + count > pointCount.get()) {
+			throw new IndexOutOfBoundsException("Invalid range of points: " + first + " to " + (first + count));
+		}
+	}
+	
+	/**
+	 * Reads the totals of a run of points which does not wrap around the end
+	 * of the archive, starting at the given absolute index.
+	 */
+	private void readTotals(int start, int count, long[] totals, int offset)
+	{
+		if (count == 0) {
+			return;
+		}
+		int size = format.getFieldSize(index, StatFormat.FIELD_TOTAL);
+		int stride = format.getFieldStride(index, StatFormat.FIELD_TOTAL);
+		ByteBuffer buffer = readField(StatFormat.FIELD_TOTAL, start, count);
+		
+		if (size == 8 && stride == size) {
+			buffer.asLongBuffer().get(totals, offset, count);
+		}
+		else if (size == 8) {
+			for (int i = 0; i < count; i++) {
+				totals[offset + i] = buffer.getLong(i * stride);
+			}
+		}
+		else {
+			for (int i = 0; i < count; i++) {
+				totals[offset + i] = buffer.getInt(i * stride) & 0xFFFFFFFFL;
+			}
+		}
+	}
+	
+	/**
+	 * Reads the double values of the given field of a range of points into 
+	 * the given array from oldest to newest. Compact fields are read as 
+	 * floats, and if the points do not keep the field the range is filled 
+	 * with NaN.
+	 */
+	private void getDoubles(int field, int first, int count, double[] values, int offset)
+	{
+		checkRange(first, count);
+		
+		if (format.getFieldSize(index, field) == 0) {
+			Arrays.fill(values, offset, offset + count, Double.NaN);
+			return;
+		}
+		
+		int sequence;
+		do {
+			sequence = beginRead();
+			int start = index(pointerIndex.get() + 1 + first);
+			int run = Math.min(count, pointCount.get() - start);
+			readDoubles(field, start, run, values, offset);
+			readDoubles(field, 0, count - run, values, offset + run);
+		} while (!endRead(sequence));
+	}
+	
+	/**
+	 * Reads the double values of the given field of a run of points which 
+	 * does not wrap around the end of the archive.
+	 */
+	private void readDoubles(int field, int start, int count, double[] values, int offset)
+	{
+		if (count == 0) {
+			return;
+		}
+		int size = format.getFieldSize(index, field);
+		int stride = format.getFieldStride(index, field);
+		boolean integer = format.isLongField(index, field);
+		ByteBuffer buffer = readField(field, start, count);
+		
+		if (size == 8 && stride == size && !integer) {
+			buffer.asDoubleBuffer().get(values, offset, count);
+		}
+		else {
+			for (int i = 0; i < count; i++) {
+				values[offset + i] = getValue(buffer, i * stride, size, integer);
+			}
+		}
+	}
+	
+	/**
+	 * Reads the long values of the given field of a range of points into the
+	 * given array from oldest to newest. Floating point values are rounded, 
+	 * and if the points do not keep the field the range is filled with zeros.
+	 */
+	private void getLongs(int field, int first, int count, long[] values, int offset)
+	{
+		checkRange(first, count);
+		
+		if (format.getFieldSize(index, field) == 0) {
+			Arrays.fill(values, offset, offset + count, 0L);
+			return;
+		}
+		
+		int sequence;
+		do {
+			sequence = beginRead();
+			int start = index(pointerIndex.get() + 1 + first);
+			int run = Math.min(count, pointCount.get() - start);
+			readLongs(field, start, run, values, offset);
+			readLongs(field, 0, count - run, values, offset + run);
+		} while (!endRead(sequence));
+	}
+	
+	/**
+	 * Reads the long values of the given field of a run of points which does
+	 * not wrap around the end of the archive.
+	 */
+	private void readLongs(int field, int start, int count, long[] values, int offset)
+	{
+		if (count == 0) {
+			return;
+		}
+		int size = format.getFieldSize(index, field);
+		int stride = format.getFieldStride(index, field);
+		boolean integer = format.isLongField(index, field);
+		ByteBuffer buffer = readField(field, start, count);
+		
+		if (stride == size && integer) {
+			buffer.asLongBuffer().get(values, offset, count);
+		}
+		else if (integer) {
+			for (int i = 0; i < count; i++) {
+				values[offset + i] = buffer.getLong(i * stride);
+			}
+		}
+		else {
+			for (int i = 0; i < count; i++) {
+				values[offset + i] = Math.round(getValue(buffer, i * stride, size, false));
+			}
+		}
+	}
+	
+	/**
+	 * Returns the value at the given position in the buffer, a value of 4
+	 * bytes is a float and a value of 8 bytes is a long or a double.
+	 */
+	protected static double getValue(ByteBuffer buffer, int position, int size, boolean integer)
+	{
+		if (size == 4) {
+			return buffer.getFloat(position);
+		}
+		return (integer ? buffer.getLong(position) : buffer.getDouble(position));
+	}
+	
+	/**
+	 * Reads the float values of the given field of a range of points into the
+	 * given array from oldest to newest. Wider values are converted to floats,
+	 * and if the points do not keep the field the range is filled with NaN.
+	 */
+	private void getFloats(int field, int first, int count, float[] values, int offset)
+	{
+		checkRange(first, count);
+		
+		if (format.getFieldSize(index, field) == 0) {
+			Arrays.fill(values, offset, offset + count, Float.NaN);
+			return;
+		}
+		
+		int sequence;
+		do {
+			sequence = beginRead();
+			int start = index(pointerIndex.get() + 1 + first);
+			int run = Math.min(count, pointCount.get() - start);
+			readFloats(field, start, run, values, offset);
+			readFloats(field, 0, count - run, values, offset + run);
+		} while (!endRead(sequence));
+	}
+	
+	/**
+	 * Reads the float values of the given field of a run of points which does
+	 * not wrap around the end of the archive.
+	 */
+	private void readFloats(int field, int start, int count, float[] values, int offset)
+	{
+		if (count == 0) {
+			return;
+		}
+		int size = format.getFieldSize(index, field);
+		int stride = format.getFieldStride(index, field);
+		ByteBuffer buffer = readField(field, start, count);
+		
+		if (size == 4 && stride == size) {
+			buffer.asFloatBuffer().get(values, offset, count);
+		}
+		else {
+			boolean integer = format.isLongField(index, field);
+			for (int i = 0; i < count; i++) {
+				values[offset + i] = (float)getValue(buffer, i * stride, size, integer);
+			}
+		}
+	}
+	
+	/**
+	 * Copies the header and points of this archive to the same location in
+	 * the given store. The copy is of a single state of the archive.
+	 * 
+	 * @param copy
+	 * 		The store to copy the archive to.
+	 */
+	protected void copyTo(Store copy)
+	{
+		int location = format.getArchiveHeaderOffset(index);
+		ByteBuffer buffer = ByteBuffer.allocate(format.getArchiveSize(index));
+		
+		int start;
+		do {
+			start = beginRead();
+			buffer.clear();
+			getStore().get(location, buffer);
+		} while (!endRead(start));
+		
+		buffer.flip();
+		copy.put(location, buffer);
+	}
+	
+	/**
+	 * Reads the bytes of all points of this archive into the given buffer in
+	 * a single read, the buffer must have room for them. The value of a field
+	 * of the point at an absolute index is at getPointOffset(field, index) in
+	 * the buffer.
+	 * 
+	 * @param buffer
+	 * 		The buffer to read the points into, it is flipped afterwards.
+	 */
+	protected void readPoints(ByteBuffer buffer)
+	{
+		buffer.clear();
+		buffer.limit(pointCount.get() * format.getPointSize(index));
+		getStore().get(format.getFieldOffset(index, StatFormat.FIELD_TOTAL), buffer);
+		buffer.flip();
+	}
+	
+	/**
+	 * Returns the position of the value of the given field of the point at
+	 * the given absolute index in the bytes read by readPoints.
+	 */
+	protected int getPointOffset(int field, int absolute)
+	{
+		return format.getFieldOffset(index, field) - format.getFieldOffset(index, StatFormat.FIELD_TOTAL) + 
+			format.getFieldStride(index, field) * absolute;
+	}
+	
+	/**
+	 * Reads all bytes from the value of the given field of the point at the
+	 * given absolute index to the value of the field of the last point of the
+	 * run in a single read. In a column layout these are only the values of 
+	 * the field, in a row layout these are all points of the run.
+	 */
+	private ByteBuffer readField(int field, int start, int count)
+	{
+		int stride = format.getFieldStride(index, field);
+		int size = stride * (count - 1) + format.getFieldSize(index, field);
+		
+		ByteBuffer buffer = ByteBuffer.allocate(size);
+		getStore().get(format.getFieldOffset(index, field) + start * stride, buffer);
+		buffer.clear();
+		
+		return buffer;
+	}
+	
 	/**
 	 * {@inheritDoc}
 	 */
@@ -316,13 +1205,31 @@ public class StatArchive extends DataSet implements Iterable<StatPoint>
 	 */
 	private class PointIterator implements Iterator<StatPoint> 
 	{
-		int offset = pointerIndex.get();
+		int offset;
+		long time;
 		int index = 0;
+		PointIterator() {
+			int start;
+			do {
+				start = beginRead();
+				offset = pointerIndex.get();
+				time = pointerTime.get() - interval.get() * (pointCount.get() - 1);
+			} while (!endRead(start));
+		}
 		public boolean hasNext() {
 			return (index < pointCount.get());
 		}
 		public StatPoint next() {
-			return points.get(index(++index + offset));
+			StatPoint pt = new StatPoint();
+			int start;
+			do {
+				start = beginRead();
+				pt.read(format, StatArchive.this.index, index(offset + index + 1), getStore());
+			} while (!endRead(start));
+			pt.setStartTime(time + interval.get() * index);
+			pt.setEndTime(pt.getStartTime() + interval.get());
+			index++;
+			return pt;
 		}
 		public void remove() {
 			throw new UnsupportedOperationException();
@@ -0,0 +1,401 @@
+/* 
+ * NOTICE OF LICENSE
+ * 
+ * This source file is subject to the Open Software License (OSL 3.0) that is 
+ * bundled with this package in the file LICENSE.txt. It is also available 
+ * through the world-wide-web at http://opensource.org/licenses/osl-3.0.php
+ * If you did not receive a copy of the license and are unable to obtain it 
+ * through the world-wide-web, please send an email to pdiffenderfer@gmail.com 
+ * so we can send you a copy immediately. If you use any of this software please
+ * notify me via my website or email, your feedback is much appreciated. 
+ * 
+ * @copyright   Copyright (c) 2011 Magnos Software (http://www.magnos.org)
+ * @license     http://opensource.org/licenses/osl-3.0.php
+ * 				Open Software License (OSL 3.0)
+ */
+
+package org.magnos.stat;
+
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+
+/**
+ * A cache of the series returned by fetching a database or aggregating a 
+ * group, for dashboards and reports which repeatedly read the same ranges.
+ * A cached series is returned as long as the points it was read from have
+ * not changed (and for an aggregate, the group still has the same databases),
+ * otherwise it's read again. A range read from an archive which ended before
+ * the newest point of the archive is kept until the archive overwrites the
+ * start of the range, a range which includes the newest point is read again
+ * once the version of the archive changes. The least recently used series 
+ * are dropped when the cache has more than the maximum number of series or 
+ * bytes.
+ * 
+ * The series returned are shared, they must not be modified.
+ * 
+ * @author Philip Diffenderfer
+ * @see StatArchive#getVersion()
+ */
+public class StatCache
+{
+	
+	/**
+	 * The estimated size in bytes of each point of a series.
+	 */
+	public static final int POINT_SIZE = 48;
+	
+	/**
+	 * The estimated size in bytes of a series and its entry in the cache.
+	 */
+	public static final int SERIES_SIZE = 160;
+	
+	
+	// The cached series from least recently used to most recently used.
+	private final LinkedHashMap<Query, Entry> entries;
+	
+	// The most series and bytes the cache holds.
+	private final int maxSize;
+	private final long maxBytes;
+	
+	// The estimated bytes of all cached series.
+	private long bytes;
+	
+	// The number of reads returned from the cache and read again.
+	private long hits;
+	private long misses;
+	
+	
+	/**
+	 * Instantiates a new StatCache.
+	 * 
+	 * @param maxSize
+	 * 		The most series the cache holds.
+	 * @param maxBytes
+	 * 		The most estimated bytes of the series the cache holds.
+	 */
+	public StatCache(int maxSize, long maxBytes)
+	{
+		this.maxSize = maxSize;
+		this.maxBytes = maxBytes;
+		this.entries = new LinkedHashMap<Query, Entry>(16, 0.75f, true);
+	}
+	
+	/**
+	 * Returns the points of the database over the given range of time from
+	 * the cache, or fetches and caches them if the database has changed 
+	 * since they were cached.
+	 * 
+	 * @param database
+	 * 		The database to read.
+	 * @param start
+	 * 		The start of the range in milliseconds since the Unix epoch.
+	 * @param end
+	 * 		The end of the range in milliseconds since the Unix epoch.
+	 * @param maxPoints
+	 * 		The most points the range should be read with, or zero if any
+	 * 		number of points is acceptable.
+	 * @return
+	 * 		The points in the range from oldest to newest.
+	 * @see StatDatabase#fetch(long, long, int)
+	 */
+	public StatSeries fetch(StatDatabase database, long start, long end, int maxPoints)
+	{
+		Query query = new Query(database, null, start, end, maxPoints);
+		StatDatabase[] databases = { database };
+		
+		StatSeries series = get(query, databases);
+		if (series == null) {
+			Read[] reads = { new Read(database) };
+			series = database.fetch(start, end, maxPoints, reads[0].ends);
+			put(query, databases, reads, series);
+		}
+		return series;
+	}
+	
+	/**
+	 * Returns the points of all databases in the group added together into
+	 * points of the given interval from the cache, or aggregates and caches
+	 * them if any of the databases have changed since they were cached.
+	 * 
+	 * @param group
+	 * 		The group to aggregate.
+	 * @param start
+	 * 		The start time of the first point in milliseconds since the Unix 
+	 * 		epoch.
+	 * @param end
+	 * 		The end of the range of the points.
+	 * @param interval
+	 * 		The interval of each point in milliseconds.
+	 * @param target
+	 * 		The target of the aggregate.
+	 * @param executor
+	 * 		The executor to aggregate with, or null to aggregate in the calling
+	 * 		thread.
+	 * @return
+	 * 		The points of all databases added together.
+	 * @see StatGroup#aggregate(long, long, long, StatTarget, ExecutorService)
+	 */
+	public StatSeries aggregate(StatGroup group, long start, long end, long interval, StatTarget target, ExecutorService executor)
+	{
+		Query query = new Query(group, target, start, end, interval);
+		Set<StatDatabase> current = group.getDatabases(target);
+		StatDatabase[] databases = current.toArray(new StatDatabase[current.size()]);
+		
+		StatSeries series = get(query, databases);
+		if (series == null) {
+			Read[] reads = new Read[databases.length];
+			long[][] ends = new long[databases.length][];
+			for (int i = 0; i < databases.length; i++) {
+				reads[i] = new Read(databases[i]);
+				ends[i] = reads[i].ends;
+			}
+			series = group.aggregate(start, end, interval, databases, ends, executor);
+			put(query, databases, reads, series);
+		}
+		return series;
+	}
+	
+	/**
+	 * Returns the cached series of the query if it was read from the given
+	 * databases and none of them have changed.
+	 */
+	private synchronized StatSeries get(Query query, StatDatabase[] databases)
+	{
+		Entry entry = entries.get(query);
+		if (entry != null && entry.isValid(databases)) {
+			hits++;
+			return entry.series;
+		}
+		misses++;
+		return null;
+	}
+	
+	/**
+	 * Caches the series of the query if the points read didn't change while 
+	 * it was read, and drops the least recently used series until the cache
+	 * is within its limits.
+	 */
+	private synchronized void put(Query query, StatDatabase[] databases, Read[] reads, StatSeries series)
+	{
+		Entry previous = entries.remove(query);
+		if (previous != null) {
+			bytes -= previous.bytes;
+		}
+		
+		Entry entry = new Entry(series, reads, query.start);
+		if (entry.bytes > maxBytes || !entry.isValid(databases)) {
+			return;
+		}
+		entries.put(query, entry);
+		bytes += entry.bytes;
+		
+		Iterator<Entry> iterator = entries.values().iterator();
+		while (entries.size() > maxSize || bytes > maxBytes) {
+			bytes -= iterator.next().bytes;
+			iterator.remove();
+		}
+	}
+	
+	/**
+	 * Removes all series from the cache.
+	 */
+	public synchronized void clear()
+	{
+		entries.clear();
+		bytes = 0;
+	}
+	
+	/**
+	 * Returns the number of series in the cache.
+	 */
+	public synchronized int getSize()
+	{
+		return entries.size();
+	}
+	
+	/**
+	 * Returns the estimated bytes of the series in the cache.
+	 */
+	public synchronized long getBytes()
+	{
+		return bytes;
+	}
+	
+	/**
+	 * Returns the number of reads which were returned from the cache.
+	 */
+	public synchronized long getHits()
+	{
+		return hits;
+	}
+	
+	/**
+	 * Returns the number of reads which had to read the databases.
+	 */
+	public synchronized long getMisses()
+	{
+		return misses;
+	}
+	
+	/**
+	 * Returns the most series the cache holds.
+	 */
+	public int getMaxSize()
+	{
+		return maxSize;
+	}
+	
+	/**
+	 * Returns the most estimated bytes of the series the cache holds.
+	 */
+	public long getMaxBytes()
+	{
+		return maxBytes;
+	}
+	
+	
+	/**
+	 * The database or group read and the arguments of the read.
+	 */
+	private static class Query
+	{
+		private final Object source;
+		private final StatTarget target;
+		private final long start;
+		private final long end;
+		private final long resolution;
+		
+		Query(Object source, StatTarget target, long start, long end, long resolution)
+		{
+			this.source = source;
+			this.target = target;
+			this.start = start;
+			this.end = end;
+			this.resolution = resolution;
+		}
+		
+		@Override
+		public int hashCode()
+		{
+			long hash = System.identityHashCode(source);
+			hash = hash * 31 + (target == null ? 0 : target.hashCode());
+			hash = hash * 31 + start;
+			hash = hash * 31 + end;
+			hash = hash * 31 + resolution;
+			return (int)(hash ^ (hash >>> 32));
+		}
+		
+		@Override
+		public boolean equals(Object o)
+		{
+			if (!(o instanceof Query)) {
+				return false;
+			}
+			Query q = (Query)o;
+			return (source == q.source && target == q.target && start == q.start && end == q.end && resolution == q.resolution);
+		}
+	}
+	
+	/**
+	 * A cached series, the start of its range, and the databases it was read
+	 * from.
+	 */
+	private static class Entry
+	{
+		private final StatSeries series;
+		private final Read[] reads;
+		private final long start;
+		private final long bytes;
+		
+		Entry(StatSeries series, Read[] reads, long start)
+		{
+			this.series = series;
+			this.reads = reads;
+			this.start = start;
+			this.bytes = SERIES_SIZE + (long)series.getSize() * POINT_SIZE;
+		}
+		
+		/**
+		 * Returns whether the series was read from exactly the given databases
+		 * and none of the points read have changed since.
+		 */
+		boolean isValid(StatDatabase[] current)
+		{
+			if (current.length != reads.length) {
+				return false;
+			}
+			Set<StatDatabase> read = new HashSet<StatDatabase>();
+			for (Read r : reads) {
+				if (!r.isValid(start)) {
+					return false;
+				}
+				read.add(r.database);
+			}
+			for (StatDatabase db : current) {
+				if (!read.contains(db)) {
+					return false;
+				}
+			}
+			return true;
+		}
+	}
+	
+	/**
+	 * The state of the archives of a database before it was read, and the
+	 * end of the range read from each archive.
+	 */
+	private static class Read
+	{
+		private final StatDatabase database;
+		private final int[] versions;
+		private final long[] pointers;
+		private final long[] oldest;
+		private final long[] ends;
+		
+		Read(StatDatabase database)
+		{
+			int count = database.getArchiveCount();
+			this.database = database;
+			this.versions = new int[count];
+			this.pointers = new long[count];
+			this.oldest = new long[count];
+			this.ends = new long[count];
+			
+			for (int i = 0; i < count; i++) {
+				StatArchive archive = database.getArchive(i);
+				versions[i] = archive.getVersion();
+				pointers[i] = archive.getPointerTime();
+				oldest[i] = archive.getStartTime();
+				ends[i] = Long.MIN_VALUE;
+			}
+		}
+		
+		/**
+		 * Returns whether the points read from each archive are unchanged. A
+		 * range which ended before the newest point of the archive when it 
+		 * was read only changes when the archive overwrites its start, any 
+		 * other range changes with the version of the archive.
+		 */
+		boolean isValid(long start)
+		{
+			for (int i = 0; i < ends.length; i++) {
+				// The archive wasn't read.
+				if (ends[i] == Long.MIN_VALUE) {
+					continue;
+				}
+				StatArchive archive = database.getArchive(i);
+				boolean closed = (ends[i] <= pointers[i]);
+				boolean kept = (Math.max(start, archive.getStartTime()) == Math.max(start, oldest[i]));
+				
+				if (!(closed && kept) && archive.getVersion() != versions[i]) {
+					return false;
+				}
+			}
+			return true;
+		}
+	}
+	
+}
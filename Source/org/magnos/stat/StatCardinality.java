@@ -0,0 +1,283 @@
+/* 
+ * NOTICE OF LICENSE
+ * 
+ * This source file is subject to the Open Software License (OSL 3.0) that is 
+ * bundled with this package in the file LICENSE.txt. It is also available 
+ * through the world-wide-web at http://opensource.org/licenses/osl-3.0.php
+ * If you did not receive a copy of the license and are unable to obtain it 
+ * through the world-wide-web, please send an email to pdiffenderfer@gmail.com 
+ * so we can send you a copy immediately. If you use any of this software please
+ * notify me via my website or email, your feedback is much appreciated. 
+ * 
+ * @copyright   Copyright (c) 2011 Magnos Software (http://www.magnos.org)
+ * @license     http://opensource.org/licenses/osl-3.0.php
+ * 				Open Software License (OSL 3.0)
+ */
+
+package org.magnos.stat;
+
+import org.magnos.data.Store;
+
+/**
+ * A HyperLogLog estimate of the number of distinct items added to a point. The
+ * items are added as 64-bit hashes, the highest bits of the hash choose one of
+ * 2^precision registers and the register keeps the largest number of leading
+ * zeros (plus one) seen in the remaining bits of the hashes.
+ * 
+ * Each register is a single byte, so the size of the estimate is fixed at 
+ * 2^precision bytes and its standard error is about 1.04 / sqrt(2^precision).
+ * 
+ * <pre>
+ * precision=10: 1024 bytes, 3.25% error
+ * precision=12: 4096 bytes, 1.63% error
+ * precision=14: 16384 bytes, 0.81% error
+ * </pre>
+ * 
+ * Two estimates with the same precision can be merged by taking the largest
+ * of each of their registers, the result is the estimate of the union of the
+ * items added to both.
+ * 
+ * @author Philip Diffenderfer
+ * @see StatFormat#setCardinality(int)
+ */
+public class StatCardinality
+{
+	
+	/**
+	 * The smallest precision of an estimate.
+	 */
+	public static final int MIN_PRECISION = 4;
+	
+	/**
+	 * The largest precision of an estimate.
+	 */
+	public static final int MAX_PRECISION = 16;
+	
+	
+	// The number of bits of a hash which choose the register.
+	private final int precision;
+	
+	// The registers of the estimate.
+	private final byte[] registers;
+	
+	// The byte of a single register updated in place in a store.
+	private final byte[] register = new byte[1];
+	
+	
+	/**
+	 * Instantiates a new StatCardinality.
+	 * 
+	 * @param precision
+	 * 		The number of bits of a hash which choose the register, between 
+	 * 		MIN_PRECISION and MAX_PRECISION.
+	 */
+	public StatCardinality(int precision)
+	{
+		this.precision = precision;
+		this.registers = new byte[1 << precision];
+	}
+	
+	/**
+	 * Adds an item to the estimate.
+	 * 
+	 * @param hash
+	 * 		The 64-bit hash of the item, all bits of the hash should be well
+	 * 		distributed (see mix).
+	 */
+	public void add(long hash)
+	{
+		int index = getRegisterIndex(hash);
+		int rank = getRank(hash);
+		
+		if (rank > registers[index]) {
+			registers[index] = (byte)rank;
+		}
+	}
+	
+	/**
+	 * Adds an item to the estimate at the given location in a store without
+	 * reading the other registers, the register of the item is updated in the
+	 * store and the registers of this estimate are not changed.
+	 * 
+	 * @param hash
+	 * 		The 64-bit hash of the item.
+	 * @param location
+	 * 		The location of the first register in the store.
+	 * @param store
+	 * 		The store the estimate is in.
+	 */
+	protected void add(long hash, int location, Store store)
+	{
+		int offset = location + getRegisterIndex(hash);
+		int rank = getRank(hash);
+		
+		store.get(offset, register);
+		if (rank > register[0]) {
+			register[0] = (byte)rank;
+			store.put(offset, register);
+		}
+	}
+	
+	/**
+	 * Returns the register the given hash is counted in.
+	 */
+	private int getRegisterIndex(long hash)
+	{
+		return (int)(hash >>> (64 - precision));
+	}
+	
+	/**
+	 * Returns the number of leading zeros (plus one) of the bits of the given
+	 * hash after those which choose the register.
+	 */
+	private int getRank(long hash)
+	{
+		return Math.min(Long.numberOfLeadingZeros(hash << precision), 64 - precision) + 1;
+	}
+	
+	/**
+	 * Merges the given estimate into this estimate, afterwards this is the
+	 * estimate of the items added to either.
+	 * 
+	 * @param cardinality
+	 * 		The estimate to merge, must have the same precision.
+	 * @throws IllegalArgumentException
+	 * 		The estimate has a different precision.
+	 */
+	public void merge(StatCardinality cardinality)
+	{
+		if (cardinality.precision != precision) {
+			throw new IllegalArgumentException("Estimates have different precisions");
+		}
+		for (int i = 0; i < registers.length; i++) {
+			if (cardinality.registers[i] > registers[i]) {
+				registers[i] = cardinality.registers[i];
+			}
+		}
+	}
+	
+	/**
+	 * Removes all items from the estimate.
+	 */
+	public void clear()
+	{
+		for (int i = 0; i < registers.length; i++) {
+			registers[i] = 0;
+		}
+	}
+	
+	/**
+	 * Returns the estimated number of distinct items added.
+	 * 
+	 * @return
+	 * 		The estimated number of distinct items.
+	 */
+	public double getEstimate()
+	{
+		int m = registers.length;
+		int zeros = 0;
+		double sum = 0.0;
+		for (int i = 0; i < m; i++) {
+			sum += 1.0 / (1L << registers[i]);
+			if (registers[i] == 0) {
+				zeros++;
+			}
+		}
+		
+		double estimate = getAlpha(m) * m * m / sum;
+		
+		// Small ranges are more accurately estimated by the empty registers.
+		if (estimate <= 2.5 * m && zeros > 0) {
+			estimate = m * Math.log((double)m / zeros);
+		}
+		
+		return estimate;
+	}
+	
+	/**
+	 * Returns the bias correction of the estimate for the number of registers.
+	 */
+	private static double getAlpha(int m)
+	{
+		switch (m) {
+		case 16: return 0.673;
+		case 32: return 0.697;
+		case 64: return 0.709;
+		}
+		return 0.7213 / (1.0 + 1.079 / m);
+	}
+	
+	/**
+	 * Mixes the bits of the given value so they are well distributed, this
+	 * should be used on identifiers (which are typically sequential) before
+	 * they are added to an estimate.
+	 * 
+	 * @param value
+	 * 		The value to mix.
+	 * @return
+	 * 		The hash of the value.
+	 */
+	public static long mix(long value)
+	{
+		value ^= (value >>> 33);
+		value *= 0xff51afd7ed558ccdL;
+		value ^= (value >>> 33);
+		value *= 0xc4ceb9fe1a85ec53L;
+		value ^= (value >>> 33);
+		return value;
+	}
+	
+	/**
+	 * Returns the value of the given register.
+	 * 
+	 * @param register
+	 * 		The index of the register.
+	 */
+	public int getRegister(int register)
+	{
+		return registers[register];
+	}
+	
+	/**
+	 * Returns the number of bits of a hash which choose the register.
+	 */
+	public int getPrecision()
+	{
+		return precision;
+	}
+	
+	/**
+	 * Returns the size of this estimate in bytes.
+	 */
+	public int getSize()
+	{
+		return registers.length;
+	}
+	
+	/**
+	 * Reads the registers of this estimate from the given location in a store.
+	 * 
+	 * @param location
+	 * 		The location of the first register in the store.
+	 * @param store
+	 * 		The store to read from.
+	 */
+	protected void read(int location, Store store)
+	{
+		store.get(location, registers);
+	}
+	
+	/**
+	 * Writes the registers of this estimate to the given location in a store.
+	 * 
+	 * @param location
+	 * 		The location of the first register in the store.
+	 * @param store
+	 * 		The store to write to.
+	 */
+	protected void write(int location, Store store)
+	{
+		store.put(location, registers);
+	}
+	
+}
@@ -0,0 +1,240 @@
+/* 
+ * NOTICE OF LICENSE
+ * 
+ * This source file is subject to the Open Software License (OSL 3.0) that is 
+ * bundled with this package in the file LICENSE.txt. It is also available 
+ * through the world-wide-web at http://opensource.org/licenses/osl-3.0.php
+ * If you did not receive a copy of the license and are unable to obtain it 
+ * through the world-wide-web, please send an email to pdiffenderfer@gmail.com 
+ * so we can send you a copy immediately. If you use any of this software please
+ * notify me via my website or email, your feedback is much appreciated. 
+ * 
+ * @copyright   Copyright (c) 2011 Magnos Software (http://www.magnos.org)
+ * @license     http://opensource.org/licenses/osl-3.0.php
+ * 				Open Software License (OSL 3.0)
+ */
+
+package org.magnos.stat;
+
+import java.nio.ByteBuffer;
+
+/**
+ * A cursor which scans the points of archives from oldest to newest without
+ * creating a StatPoint for each point. The values of the current point are
+ * returned by primitive getters, and a single cursor can be reused to scan 
+ * any number of archives. Opening an archive reads all of its points into 
+ * the buffer of the cursor in a single read, the buffer is only replaced 
+ * when an archive has more bytes than any archive opened before it.
+ * 
+ * <pre>
+ * StatCursor cursor = new StatCursor();
+ * for (StatDatabase database : group.getDatabases()) {
+ *     cursor.open(database.getArchive(0));
+ *     while (cursor.next()) {
+ *         cursor.getStartTime();
+ *         cursor.getTotal();
+ *     }
+ * }
+ * </pre>
+ * 
+ * A cursor is not thread-safe, each thread should use its own cursor.
+ * 
+ * @author Philip Diffenderfer
+ */
+public class StatCursor
+{
+	
+	// The bytes of the points of the open archive.
+	private ByteBuffer buffer = ByteBuffer.allocate(0);
+	
+	// The archive being scanned.
+	private StatArchive archive;
+	
+	// The number of points, the absolute index of the oldest point, the start
+	// time of the oldest point, and the interval of the open archive.
+	private int count;
+	private int oldest;
+	private long time;
+	private long interval;
+	
+	// The size and whether each value of the open archive is a long.
+	private int sumSize;
+	private int minSize;
+	private int maxSize;
+	private int totalSize;
+	private boolean longSum;
+	private boolean longMin;
+	private boolean longMax;
+	
+	// The relative index of the current point.
+	private int index;
+	
+	// The absolute index of the current point.
+	private int absolute;
+	
+	
+	/**
+	 * Opens the given archive and moves before its oldest point, next must be
+	 * invoked to move to the oldest point.
+	 * 
+	 * @param archive
+	 * 		The archive to scan.
+	 * @return
+	 * 		This cursor.
+	 */
+	public StatCursor open(StatArchive archive)
+	{
+		StatFormat format = archive.getFormat();
+		int i = archive.getIndex();
+		int size = archive.getPointCount() * format.getPointSize(i);
+		
+		if (buffer.capacity() < size) {
+			buffer = ByteBuffer.allocate(size);
+		}
+		
+		// Read the points and pointer from a single state of the archive.
+		int start;
+		do {
+			start = archive.beginRead();
+			archive.readPoints(buffer);
+			this.oldest = (archive.getPointerIndex() + 1) % archive.getPointCount();
+			this.time = archive.getStartTime();
+		} while (!archive.endRead(start));
+		
+		this.archive = archive;
+		this.count = archive.getPointCount();
+		this.interval = archive.getInterval();
+		this.totalSize = format.getFieldSize(i, StatFormat.FIELD_TOTAL);
+		this.sumSize = format.getFieldSize(i, StatFormat.FIELD_SUM);
+		this.minSize = format.getFieldSize(i, StatFormat.FIELD_MIN);
+		this.maxSize = format.getFieldSize(i, StatFormat.FIELD_MAX);
+		this.longSum = format.isLongField(i, StatFormat.FIELD_SUM);
+		this.longMin = format.isLongField(i, StatFormat.FIELD_MIN);
+		this.longMax = format.isLongField(i, StatFormat.FIELD_MAX);
+		this.index = -1;
+		
+		return this;
+	}
+	
+	/**
+	 * Moves to the next point of the open archive.
+	 * 
+	 * @return
+	 * 		True if the cursor is on a point, false if there are no more points
+	 * 		or no archive is open.
+	 */
+	public boolean next()
+	{
+		if (archive == null || index + 1 >= count) {
+			return false;
+		}
+		index++;
+		absolute = (oldest + index) % count;
+		return true;
+	}
+	
+	/**
+	 * Returns the archive being scanned, or null if none has been opened.
+	 */
+	public StatArchive getArchive()
+	{
+		return archive;
+	}
+	
+	/**
+	 * Returns the relative index of the current point, where 0 is the oldest.
+	 */
+	public int getIndex()
+	{
+		return index;
+	}
+	
+	/**
+	 * Returns the start time of the current point in milliseconds since the
+	 * Unix epoch.
+	 */
+	public long getStartTime()
+	{
+		return time + interval * index;
+	}
+	
+	/**
+	 * Returns the end time of the current point in milliseconds since the 
+	 * Unix epoch.
+	 */
+	public long getEndTime()
+	{
+		return getStartTime() + interval;
+	}
+	
+	/**
+	 * Returns the total statistics of the current point.
+	 */
+	public long getTotal()
+	{
+		int position = archive.getPointOffset(StatFormat.FIELD_TOTAL, absolute);
+		
+		return (totalSize == 8 ? buffer.getLong(position) : buffer.getInt(position) & 0xFFFFFFFFL);
+	}
+	
+	/**
+	 * Returns the sum of the statistics of the current point, or NaN if the 
+	 * archive does not keep the sum.
+	 */
+	public double getSum()
+	{
+		return getValue(StatFormat.FIELD_SUM, sumSize, longSum);
+	}
+	
+	/**
+	 * Returns the sum of the statistics of the current point as a long, this
+	 * is exact for a database of longs. If the archive does not keep the sum
+	 * zero is returned.
+	 */
+	public long getLongSum()
+	{
+		if (longSum) {
+			return buffer.getLong(archive.getPointOffset(StatFormat.FIELD_SUM, absolute));
+		}
+		return (sumSize == 0 ? 0L : Math.round(getSum()));
+	}
+	
+	/**
+	 * Returns the average of the statistics of the current point.
+	 */
+	public double getAverage()
+	{
+		return getSum() / getTotal();
+	}
+	
+	/**
+	 * Returns the smallest statistic of the current point, or NaN if the 
+	 * archive does not keep it.
+	 */
+	public double getMin()
+	{
+		return getValue(StatFormat.FIELD_MIN, minSize, longMin);
+	}
+	
+	/**
+	 * Returns the largest statistic of the current point, or NaN if the 
+	 * archive does not keep it.
+	 */
+	public double getMax()
+	{
+		return getValue(StatFormat.FIELD_MAX, maxSize, longMax);
+	}
+	
+	/**
+	 * Returns the value of the given field of the current point, or NaN if 
+	 * the archive does not keep it.
+	 */
+	private double getValue(int field, int size, boolean integer)
+	{
+		if (size == 0) {
+			return Double.NaN;
+		}
+		return StatArchive.getValue(buffer, archive.getPointOffset(field, absolute), size, integer);
+	}
+	
+}
@@ -16,6 +16,8 @@
 
 package org.magnos.stat;
 
+import java.nio.ByteBuffer;
+import java.util.Arrays;
 import java.util.Iterator;
 
 import org.magnos.data.Store;
@@ -64,6 +66,19 @@ public class StatDatabase implements Iterable<StatArchive>
 	// If the database can accept statistics to be added.
 	private boolean enabled = false;
 	
+	// The sliding windows of the database, this array is replaced when a 
+	// window is added so the StatService can iterate it without locking.
+	private volatile StatWindow[] windows = new StatWindow[0];
+	
+	// The moving averages of the database, null if it has none.
+	private volatile StatDecay decay;
+	
+	// The time and value of the last reading of a counter database, this is
+	// only accessed by the StatService.
+	private long counterTime = -1L;
+	private long counterLong;
+	private double counterValue;
+	
 	
 	/**
 	 * Instantiates a new StatDatabase for a single class.
@@ -194,6 +209,28 @@ public class StatDatabase implements Iterable<StatArchive>
 		}
 	}
 	
+	/**
+	 * Instantiates a new StatDatabase on a copy of the store of the given 
+	 * database, the copy is not validated.
+	 * 
+	 * @param database
+	 * 		The database the store is a copy of.
+	 * @param copy
+	 * 		The copy of the store of the database.
+	 */
+	private StatDatabase(StatDatabase database, Store copy)
+	{
+		this.name = database.name;
+		this.group = database.group;
+		this.store = copy;
+		this.format = database.format;
+		
+		this.archives = new StatArchive[format.getArchiveCount()];
+		for (int i = 0; i < format.getArchiveCount(); i++) {
+			this.archives[i] = new StatArchive(copy, format, i);
+		}
+	}
+	
 	/**
 	 * Adds the given statistic to the database. This will add the given 
 	 * statistic to the StatServer which will then process the statistic by
@@ -217,6 +254,131 @@ public class StatDatabase implements Iterable<StatArchive>
 		return event;
 	}
 	
+	/**
+	 * Adds the given statistic to the database without converting it to a
+	 * float. A database of doubles keeps it exactly, a database of longs 
+	 * rounds it to the nearest long.
+	 * 
+	 * @param statistic
+	 * 		The statistic to add to the database.
+	 * @return
+	 * 		The event that was generated to add the statistic to this database.
+	 * 		If the database is disabled null will be returned.
+	 * @see StatFormat#setValueType(StatValue)
+	 */
+	public StatEvent addDouble(double statistic)
+	{
+		StatEvent event = null;
+		if (enabled) {
+			event = StatEvent.forDouble(statistic);
+			event.addTarget(this);
+			event.process();
+		}
+		return event;
+	}
+	
+	/**
+	 * Adds the given statistic to the database without converting it to a
+	 * float. A database of longs sums it exactly without any floating point 
+	 * conversions.
+	 * 
+	 * @param statistic
+	 * 		The statistic to add to the database.
+	 * @return
+	 * 		The event that was generated to add the statistic to this database.
+	 * 		If the database is disabled null will be returned.
+	 * @see StatFormat#setValueType(StatValue)
+	 */
+	public StatEvent addLong(long statistic)
+	{
+		StatEvent event = null;
+		if (enabled) {
+			event = StatEvent.forLong(statistic);
+			event.addTarget(this);
+			event.process();
+		}
+		return event;
+	}
+	
+	/**
+	 * Adds a summary of statistics which were aggregated elsewhere to the 
+	 * database, this updates each archive once instead of once per statistic.
+	 * The sum of squares of the points the summary is added to is no longer
+	 * known since the summary does not have one.
+	 * 
+	 * @param count
+	 * 		The number of statistics in the summary.
+	 * @param sum
+	 * 		The sum of the statistics.
+	 * @param min
+	 * 		The smallest statistic.
+	 * @param max
+	 * 		The largest statistic.
+	 * @return
+	 * 		The event that was generated to add the summary to this database.
+	 * 		If the database is disabled or the count is not positive null will
+	 * 		be returned.
+	 */
+	public StatEvent add(long count, double sum, float min, float max)
+	{
+		if (count <= 0) {
+			return null;
+		}
+		StatPoint point = new StatPoint();
+		point.setSummary(count, sum, min, max);
+		
+		return merge(point);
+	}
+	
+	/**
+	 * Merges the statistics of the given point into the current point of each
+	 * archive in the database. The point can be from any database, which lets
+	 * the points of many databases be combined into one. The given point 
+	 * should not be modified after it is merged.
+	 * 
+	 * @param point
+	 * 		The point to merge into the database.
+	 * @return
+	 * 		The event that was generated to merge the point into this database.
+	 * 		If the database is disabled null will be returned.
+	 * @see StatPoint#merge(StatPoint)
+	 */
+	public StatEvent merge(StatPoint point)
+	{
+		StatEvent event = null;
+		if (enabled) {
+			event = StatEvent.forPoint(point);
+			event.addTarget(this);
+			event.process();
+		}
+		return event;
+	}
+	
+	/**
+	 * Adds an occurrence of the item with the given hash to the database. The
+	 * occurrence is added as a statistic of 1 (so the total of a point is the
+	 * number of occurrences) and the item is counted in the estimate of 
+	 * distinct items of each point if the format keeps one.
+	 * 
+	 * @param hash
+	 * 		The 64-bit hash of the item, all bits of the hash should be well
+	 * 		distributed (see StatCardinality.mix).
+	 * @return
+	 * 		The event that was generated to add the item to this database. If
+	 * 		the database is disabled null will be returned.
+	 * @see StatFormat#setCardinality(int)
+	 */
+	public StatEvent addHash(long hash)
+	{
+		StatEvent event = null;
+		if (enabled) {
+			event = new StatEvent(1.0f, hash);
+			event.addTarget(this);
+			event.process();
+		}
+		return event;
+	}
+	
 	/**
 	 * Returns a statistic event which will add the given statistic to this
 	 * database. The returned event has not been processed and will not be added
@@ -244,9 +406,276 @@ public class StatDatabase implements Iterable<StatArchive>
 	 */
 	protected void addEvent(StatEvent event) 
 	{
+		if (format.isCounter() && event.getPoint() == null) {
+			event = getRate(event);
+			if (event == null) {
+				return;
+			}
+		}
 		for (StatArchive a : archives) {
 			a.addEvent(event);
 		}
+		for (StatWindow w : windows) {
+			w.addEvent(event);
+		}
+		StatDecay d = decay;
+		if (d != null) {
+			d.addEvent(event);
+		}
+	}
+	
+	/**
+	 * Returns an event for the rate per second the counter of this database
+	 * increased since the last reading, and remembers the reading of the 
+	 * given event. If there is no last reading or no time has passed since
+	 * it null is returned.
+	 * 
+	 * @param event
+	 * 		The event with the reading of the counter.
+	 * @return
+	 * 		The event for the rate of the counter, or null.
+	 */
+	private StatEvent getRate(StatEvent event)
+	{
+		long time = event.getTime();
+		long elapsed = time - counterTime;
+		
+		// Wait for a later reading, the increase is kept until then.
+		if (counterTime != -1L && elapsed <= 0) {
+			return null;
+		}
+		
+		double delta;
+		if (event.getType() == StatValue.Long) {
+			long reading = event.getLongStatistic();
+			// A reading less than the last is a reset counter.
+			delta = (reading >= counterLong ? reading - counterLong : reading);
+			counterLong = reading;
+			counterValue = reading;
+		}
+		else {
+			double reading = event.getDoubleStatistic();
+			// A reading less than the last is a reset counter.
+			delta = (reading >= counterValue ? reading - counterValue : reading);
+			counterLong = Math.round(reading);
+			counterValue = reading;
+		}
+		
+		boolean first = (counterTime == -1L);
+		counterTime = time;
+		
+		return (first ? null : event.derive(delta * 1000.0 / elapsed));
+	}
+	
+	/**
+	 * Reads the points of this database over the given range of time. The 
+	 * finest archive which has no more than the given number of points in 
+	 * the range is read, and if it does not go back to the start of the range
+	 * the rest of the range is read from the coarser archives. The points of
+	 * a coarser archive which overlap a finer point are left out.
+	 * 
+	 * @param start
+	 * 		The start of the range in milliseconds since the Unix epoch.
+	 * @param end
+	 * 		The end of the range in milliseconds since the Unix epoch.
+	 * @param maxPoints
+	 * 		The most points the range should be read with, or zero if any
+	 * 		number of points is acceptable. If even the coarsest archive has
+	 * 		more points in the range it is read anyway.
+	 * @return
+	 * 		The points in the range from oldest to newest, a range which no
+	 * 		archive holds has no points.
+	 */
+	public StatSeries fetch(long start, long end, int maxPoints)
+	{
+		return fetch(start, end, maxPoints, (long[])null);
+	}
+	
+	/**
+	 * Reads the points of this database over the given range of time, and
+	 * sets the end of the range read from each archive in the given array.
+	 * 
+	 * @param start
+	 * 		The start of the range in milliseconds since the Unix epoch.
+	 * @param end
+	 * 		The end of the range in milliseconds since the Unix epoch.
+	 * @param maxPoints
+	 * 		The most points the range should be read with, or zero if any
+	 * 		number of points is acceptable.
+	 * @param ends
+	 * 		The array to set the end of the range read from each archive in,
+	 * 		at the index of the archive. The ends of archives which are not
+	 * 		read are left as is. This may be null.
+	 * @return
+	 * 		The points in the range from oldest to newest.
+	 * @see #fetch(long, long, int)
+	 */
+	protected StatSeries fetch(long start, long end, int maxPoints, long[] ends)
+	{
+		int[] order = getArchiveOrder();
+		
+		// The finest archive which holds the range in the fewest points.
+		int finest = order.length - 1;
+		for (int i = 0; i < order.length; i++) {
+			long interval = archives[order[i]].getInterval();
+			if (maxPoints <= 0 || (end - start + interval - 1) / interval <= maxPoints) {
+				finest = i;
+				break;
+			}
+		}
+		
+		// The points of each segment of the range from newest to oldest.
+		StatSeries[] segments = new StatSeries[order.length];
+		int segmentCount = 0;
+		int size = 0;
+		
+		long cursor = end;
+		for (int i = finest; i < order.length && cursor > start; i++) {
+			// The finest archive includes the point the range ends in, the
+			// coarser archives stop at the first point of the finer archive.
+			if (ends != null) {
+				ends[order[i]] = cursor;
+			}
+			StatSeries segment = archives[order[i]].read(start, cursor, segmentCount == 0);
+			
+			if (segment.getSize() == 0) {
+				continue;
+			}
+			segments[segmentCount++] = segment;
+			size += segment.getSize();
+			
+			cursor = segment.getStartTime(0);
+		}
+		
+		StatSeries series = new StatSeries(size);
+		int offset = 0;
+		while (--segmentCount >= 0) {
+			series.set(offset, segments[segmentCount]);
+			offset += segments[segmentCount].getSize();
+		}
+		return series;
+	}
+	
+	/**
+	 * Reads the points of this database over the given range of time and
+	 * reduces them to at most the given number of points. The range is read
+	 * from the finest archive which has no more than the given number of 
+	 * points (stitched with coarser archives), and if even the coarsest 
+	 * archive has more points they're reduced with the given method.
+	 * 
+	 * @param start
+	 * 		The start of the range in milliseconds since the Unix epoch.
+	 * @param end
+	 * 		The end of the range in milliseconds since the Unix epoch.
+	 * @param points
+	 * 		The most points to return, for example the width of a chart.
+	 * @param method
+	 * 		The method of reducing the points.
+	 * @return
+	 * 		The points in the range from oldest to newest.
+	 * @see #fetch(long, long, int)
+	 * @see StatSeries#downsample(int, StatDownsample)
+	 */
+	public StatSeries fetch(long start, long end, int points, StatDownsample method)
+	{
+		return fetch(start, end, points).downsample(points, method);
+	}
+	
+	/**
+	 * Adds the points of this database over the given range of time to the
+	 * points of the given series they start in. The range is read from the 
+	 * coarsest archive with an interval no longer than the given interval,
+	 * or the finest archive if they're all longer.
+	 * 
+	 * @param start
+	 * 		The start of the range in milliseconds since the Unix epoch.
+	 * @param end
+	 * 		The end of the range in milliseconds since the Unix epoch.
+	 * @param interval
+	 * 		The interval of the points of the series.
+	 * @param series
+	 * 		The series of aligned points to add to.
+	 * @param ends
+	 * 		The array to set the end of the range read from each archive in,
+	 * 		or null.
+	 * @see StatGroup#aggregate(long, long, long, StatTarget, java.util.concurrent.ExecutorService)
+	 * @see #fetch(long, long, int, long[])
+	 */
+	protected void aggregate(long start, long end, long interval, StatSeries series, long[] ends)
+	{
+		long best = 0;
+		for (StatArchive archive : archives) {
+			if (archive.getInterval() <= interval && archive.getInterval() > best) {
+				best = archive.getInterval();
+			}
+		}
+		int maxPoints = (best == 0 ? 0 : (int)((end - start + best - 1) / best));
+		
+		series.add(fetch(start, end, maxPoints, ends));
+	}
+	
+	/**
+	 * Returns the indices of the archives ordered from the shortest interval
+	 * to the longest.
+	 */
+	private int[] getArchiveOrder()
+	{
+		int[] order = new int[archives.length];
+		for (int i = 0; i < order.length; i++) {
+			int k = i;
+			while (k > 0 && archives[order[k - 1]].getInterval() > archives[i].getInterval()) {
+				order[k] = order[k - 1];
+				k--;
+			}
+			order[k] = i;
+		}
+		return order;
+	}
+	
+	/**
+	 * Advances all archives in the database to the given time, clearing any 
+	 * points that expired since the last statistic was added. This should
+	 * only be invoked by the StatService.
+	 * 
+	 * @param time
+	 * 		The current time in milliseconds since the Unix epoch.
+	 */
+	protected void tick(long time)
+	{
+		for (StatArchive a : archives) {
+			a.tick(time);
+		}
+		for (StatWindow w : windows) {
+			w.tick(time);
+		}
+	}
+	
+	/**
+	 * Returns a copy of this database at this point in time which is kept in
+	 * memory and never changes. Each archive is copied in a single read which
+	 * the StatService does not wait for, so a long query or export can read 
+	 * the snapshot while statistics are still added to this database. The
+	 * snapshot is disabled and is not added to the group of this database.
+	 * 
+	 * @return
+	 * 		The snapshot of this database.
+	 * @see StatExport
+	 */
+	public StatDatabase snapshot()
+	{
+		MemoryStore copy = new MemoryStore(name, StoreAccess.ReadWrite, format.getDatabaseSize());
+		
+		// The database header never changes once written.
+		ByteBuffer header = ByteBuffer.allocate(format.getHeaderSize());
+		store.get(0, header);
+		header.flip();
+		copy.put(0, header);
+		
+		for (StatArchive a : archives) {
+			a.copyTo(copy);
+		}
+		
+		return new StatDatabase(this, copy);
 	}
 	
 	/**
@@ -307,6 +736,79 @@ public class StatDatabase implements Iterable<StatArchive>
 		return archives[index];
 	}
 	
+	/**
+	 * Adds a sliding window to this database which keeps the summary of the
+	 * statistics added over the given duration in memory. The summary can be
+	 * read from any thread without locking.
+	 * 
+	 * @param duration
+	 * 		The duration of the window in milliseconds.
+	 * @param buckets
+	 * 		The number of buckets the window is split into, the duration must
+	 * 		be a multiple of the number of buckets.
+	 * @return
+	 * 		The window added to this database.
+	 * @see StatWindow
+	 */
+	public synchronized StatWindow addWindow(long duration, int buckets)
+	{
+		StatWindow window = new StatWindow(format, duration, buckets);
+		
+		StatWindow[] added = Arrays.copyOf(windows, windows.length + 1);
+		added[windows.length] = window;
+		windows = added;
+		
+		return window;
+	}
+	
+	/**
+	 * Returns the number of sliding windows in this database.
+	 * 
+	 * @return
+	 * 		The number of windows added to this database.
+	 */
+	public int getWindowCount()
+	{
+		return windows.length;
+	}
+	
+	/**
+	 * Returns the sliding window at the given index.
+	 * 
+	 * @param index
+	 * 		The index of the window in the order they were added.
+	 * @return
+	 * 		The reference of the window at the given index.
+	 */
+	public StatWindow getWindow(int index)
+	{
+		return windows[index];
+	}
+	
+	/**
+	 * Sets the moving averages of this database, every statistic added after
+	 * this is added to the averages.
+	 * 
+	 * @param decay
+	 * 		The moving averages to keep, or null to stop keeping them.
+	 * @see StatDecay
+	 */
+	public void setDecay(StatDecay decay)
+	{
+		this.decay = decay;
+	}
+	
+	/**
+	 * Returns the moving averages of this database.
+	 * 
+	 * @return
+	 * 		The moving averages, or null if this database has none.
+	 */
+	public StatDecay getDecay()
+	{
+		return decay;
+	}
+	
 	/**
 	 * Returns the name of the database. If the store is persisted to the
 	 * filesystem this is typically a filename.
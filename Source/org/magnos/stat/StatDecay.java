@@ -0,0 +1,252 @@
+/* 
+ * NOTICE OF LICENSE
+ * 
+ * This source file is subject to the Open Software License (OSL 3.0) that is 
+ * bundled with this package in the file LICENSE.txt. It is also available 
+ * through the world-wide-web at http://opensource.org/licenses/osl-3.0.php
+ * If you did not receive a copy of the license and are unable to obtain it 
+ * through the world-wide-web, please send an email to pdiffenderfer@gmail.com 
+ * so we can send you a copy immediately. If you use any of this software please
+ * notify me via my website or email, your feedback is much appreciated. 
+ * 
+ * @copyright   Copyright (c) 2011 Magnos Software (http://www.magnos.org)
+ * @license     http://opensource.org/licenses/osl-3.0.php
+ * 				Open Software License (OSL 3.0)
+ */
+
+package org.magnos.stat;
+
+/**
+ * Exponentially weighted moving averages of the statistics added to a 
+ * database and of the rate they are added at, like the 1, 5, and 15 minute
+ * load averages of an operating system. The averages are updated by the 
+ * StatService as each statistic is added, so no archive points need to be 
+ * read to get them.
+ * 
+ * The weight of a statistic decays by a factor of e over each period, so 
+ * the average of a period mostly reflects the statistics added over the last
+ * period. The averages are published as an immutable state after every 
+ * statistic so they can be read from any thread without locking, the rates
+ * keep decaying to the time they are read at even if no statistics are added.
+ * 
+ * <pre>
+ * StatDecay decay = new StatDecay();	// 1, 5, and 15 minutes
+ * database.setDecay(decay);
+ * ...
+ * decay.getAverage(0);					// average over about a minute
+ * decay.getRate(2);					// statistics per second over about 15 minutes
+ * </pre>
+ * 
+ * @author Philip Diffenderfer
+ * @see StatDatabase#setDecay(StatDecay)
+ */
+public class StatDecay
+{
+	
+	/**
+	 * The number of milliseconds in a minute.
+	 */
+	public static final long MINUTE = 60000L;
+	
+	/**
+	 * The default periods of the averages: 1, 5, and 15 minutes.
+	 */
+	public static final long[] DEFAULT_PERIODS = { MINUTE, 5 * MINUTE, 15 * MINUTE };
+	
+	
+	// The periods of the averages in milliseconds.
+	private final long[] periods;
+	
+	// The last published state of the averages.
+	private volatile State state;
+	
+	
+	/**
+	 * Instantiates a new StatDecay with averages over 1, 5, and 15 minutes.
+	 */
+	public StatDecay()
+	{
+		this(DEFAULT_PERIODS);
+	}
+	
+	/**
+	 * Instantiates a new StatDecay.
+	 * 
+	 * @param periods
+	 * 		The period of each average in milliseconds.
+	 * @throws IllegalArgumentException
+	 * 		A period is not positive.
+	 */
+	public StatDecay(long ... periods)
+	{
+		for (long period : periods) {
+			if (period <= 0) {
+				throw new IllegalArgumentException("Invalid decay period");
+			}
+		}
+		this.periods = periods.clone();
+		this.state = new State(System.currentTimeMillis(), new double[periods.length], new double[periods.length], new double[periods.length], 0L);
+	}
+	
+	/**
+	 * Adds the statistic or summary of the given event to the averages. This
+	 * should only be invoked by the StatService.
+	 * 
+	 * @param event
+	 * 		The event to add to the averages.
+	 */
+	protected void addEvent(StatEvent event)
+	{
+		StatPoint point = event.getPoint();
+		if (point == null) {
+			add(event.getTime(), event.getDoubleStatistic(), 1L);
+		}
+		else if (point.getTotal() > 0) {
+			add(event.getTime(), point.getAverage(), point.getTotal());
+		}
+	}
+	
+	/**
+	 * Adds the given number of statistics with the given average at the given
+	 * time to the averages, and publishes the new state. Each statistic has 
+	 * the same weight, so statistics added at the same time (or a summary of
+	 * many statistics) are all counted in the averages.
+	 */
+	private void add(long time, double value, long count)
+	{
+		State last = state;
+		
+		// Statistics which arrive out of order are treated as arriving now.
+		long elapsed = Math.max(0L, time - last.time);
+		
+		double[] sums = new double[periods.length];
+		double[] weights = new double[periods.length];
+		double[] counts = new double[periods.length];
+		
+		for (int i = 0; i < periods.length; i++) {
+			double decay = Math.exp(-(double)elapsed / periods[i]);
+			
+			sums[i] = last.sums[i] * decay;
+			weights[i] = last.weights[i] * decay;
+			counts[i] = last.counts[i] * decay + count;
+			
+			// Statistics without a value (a summary without a sum) only count
+			// towards the rate.
+			if (!Double.isNaN(value)) {
+				sums[i] += value * count;
+				weights[i] += count;
+			}
+		}
+		
+		state = new State(last.time + elapsed, sums, weights, counts, last.total + count);
+	}
+	
+	/**
+	 * Returns the number of averages.
+	 */
+	public int getPeriodCount()
+	{
+		return periods.length;
+	}
+	
+	/**
+	 * Returns the period of the average at the given index in milliseconds.
+	 * 
+	 * @param index
+	 * 		The index of the average.
+	 */
+	public long getPeriod(int index)
+	{
+		return periods[index];
+	}
+	
+	/**
+	 * Returns the exponentially weighted moving average of the statistics
+	 * over the period at the given index.
+	 * 
+	 * @param index
+	 * 		The index of the average.
+	 * @return
+	 * 		The average of the statistics, or NaN if none have been added.
+	 */
+	public double getAverage(int index)
+	{
+		State current = state;
+		
+		return (current.weights[index] == 0.0 ? Double.NaN : current.sums[index] / current.weights[index]);
+	}
+	
+	/**
+	 * Returns the exponentially weighted rate of statistics added per second
+	 * over the period at the given index as of now.
+	 * 
+	 * @param index
+	 * 		The index of the average.
+	 * @return
+	 * 		The number of statistics added per second.
+	 */
+	public double getRate(int index)
+	{
+		return getRate(index, System.currentTimeMillis());
+	}
+	
+	/**
+	 * Returns the exponentially weighted rate of statistics added per second
+	 * over the period at the given index as of the given time.
+	 * 
+	 * @param index
+	 * 		The index of the average.
+	 * @param time
+	 * 		The time in milliseconds since the Unix epoch to decay the rate to.
+	 * @return
+	 * 		The number of statistics added per second.
+	 */
+	public double getRate(int index, long time)
+	{
+		State current = state;
+		
+		long elapsed = Math.max(0L, time - current.time);
+		double decay = Math.exp(-(double)elapsed / periods[index]);
+		
+		return current.counts[index] * decay * 1000.0 / periods[index];
+	}
+	
+	/**
+	 * Returns the number of statistics added to the averages.
+	 */
+	public long getTotal()
+	{
+		return state.total;
+	}
+	
+	/**
+	 * The state of the averages after a statistic is added, a state is never
+	 * modified once it is published.
+	 */
+	private static class State
+	{
+		// The time the last statistic was added.
+		final long time;
+		
+		// The decayed sum of the statistics of each period, and the decayed
+		// number of statistics in the sum.
+		final double[] sums;
+		final double[] weights;
+		
+		// The decayed number of statistics of each period.
+		final double[] counts;
+		
+		// The number of statistics added.
+		final long total;
+		
+		State(long time, double[] sums, double[] weights, double[] counts, long total) 
+		{
+			this.time = time;
+			this.sums = sums;
+			this.weights = weights;
+			this.counts = counts;
+			this.total = total;
+		}
+	}
+	
+}
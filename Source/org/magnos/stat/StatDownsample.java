@@ -0,0 +1,51 @@
+/* 
+ * NOTICE OF LICENSE
+ * 
+ * This source file is subject to the Open Software License (OSL 3.0) that is 
+ * bundled with this package in the file LICENSE.txt. It is also available 
+ * through the world-wide-web at http://opensource.org/licenses/osl-3.0.php
+ * If you did not receive a copy of the license and are unable to obtain it 
+ * through the world-wide-web, please send an email to pdiffenderfer@gmail.com 
+ * so we can send you a copy immediately. If you use any of this software please
+ * notify me via my website or email, your feedback is much appreciated. 
+ * 
+ * @copyright   Copyright (c) 2011 Magnos Software (http://www.magnos.org)
+ * @license     http://opensource.org/licenses/osl-3.0.php
+ * 				Open Software License (OSL 3.0)
+ */
+
+
+package org.magnos.stat;
+
+/**
+ * A method of reducing the number of points in a series, so a chart only
+ * reads and draws about as many points as it has pixels.
+ * 
+ * <pre>
+ * Consolidate:     consecutive points are merged, keeping the total, sum,
+ *                  average, minimum, and maximum of each merged point.
+ * LargestTriangle: the points which best keep the shape of the averages
+ *                  are kept (Largest-Triangle-Three-Buckets).
+ * </pre>
+ * 
+ * @author Philip Diffenderfer
+ * @see StatSeries#downsample(int, StatDownsample)
+ */
+public enum StatDownsample 
+{
+	
+	/**
+	 * The points are split into buckets of consecutive points and the points
+	 * in each bucket are merged into one point.
+	 */
+	Consolidate,
+	
+	/**
+	 * The first and last points are kept and the rest are split into buckets
+	 * of consecutive points, from each bucket the point is kept which forms
+	 * the largest triangle with the point kept from the previous bucket and 
+	 * the average of the next bucket.
+	 */
+	LargestTriangle;
+	
+}
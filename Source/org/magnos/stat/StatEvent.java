@@ -25,6 +25,11 @@ import java.util.List;
  * StatisticService which will actually perform adding the statistic to the
  * archives in the given set of databases (targets). 
  * 
+ * The statistic of an event is a float unless the event is created with 
+ * forDouble or forLong, which keep the statistic at that precision so it can
+ * be added to a database of doubles or longs without a conversion. An event
+ * created with forPoint merges a summary of many statistics at once.
+ * 
  * @author Philip Diffenderfer
  *
  */
@@ -37,8 +42,23 @@ public class StatEvent
 	// The time the statistic event was added.
 	private final long time;
 	
-	// The statistic to add to the target databases.
-	private final float statistic;
+	// The type of the statistic to add.
+	private final StatValue type;
+	
+	// The statistic to add to the target databases if its not a long.
+	private final double statistic;
+	
+	// The statistic to add to the target databases if its a long.
+	private final long longStatistic;
+	
+	// The summary of statistics to merge into the target databases, if any.
+	private final StatPoint point;
+	
+	// The hash of the item to count as distinct in the target databases.
+	private final long hash;
+	
+	// Whether the event has a hash of an item.
+	private final boolean hashed;
 	
 	
 	/**
@@ -63,11 +83,94 @@ public class StatEvent
 	 */
 	public StatEvent(float statistic) 
 	{
+		this(StatValue.Float, statistic, 0L, 0L, false, null, System.currentTimeMillis());
+	}
+	
+	/**
+	 * Instantiates a new Statistic Event which also counts an item in the
+	 * distinct item estimates of the target databases.
+	 * 
+	 * @param statistic
+	 * 		The statistic to add to the target databases.
+	 * @param hash
+	 * 		The 64-bit hash of the item.
+	 * @see StatCardinality
+	 */
+	public StatEvent(float statistic, long hash) 
+	{
+		this(StatValue.Float, statistic, 0L, hash, true, null, System.currentTimeMillis());
+	}
+	
+	/**
+	 * Instantiates a new Statistic Event.
+	 */
+	private StatEvent(StatValue type, double statistic, long longStatistic, long hash, boolean hashed, StatPoint point, long time)
+	{
+		this.type = type;
 		this.statistic = statistic;
-		this.time = System.currentTimeMillis();
+		this.longStatistic = longStatistic;
+		this.point = point;
+		this.hash = hash;
+		this.hashed = hashed;
+		this.time = time;
 		this.targets = new LinkedList<StatDatabase>();
 	}
 	
+	/**
+	 * Returns a new event for a statistic which is a double.
+	 * 
+	 * @param statistic
+	 * 		The statistic to add to the target databases.
+	 * @return
+	 * 		The new event without any targets.
+	 */
+	public static StatEvent forDouble(double statistic)
+	{
+		return new StatEvent(StatValue.Double, statistic, 0L, 0L, false, null, System.currentTimeMillis());
+	}
+	
+	/**
+	 * Returns a new event for a statistic which is a long.
+	 * 
+	 * @param statistic
+	 * 		The statistic to add to the target databases.
+	 * @return
+	 * 		The new event without any targets.
+	 */
+	public static StatEvent forLong(long statistic)
+	{
+		return new StatEvent(StatValue.Long, 0.0, statistic, 0L, false, null, System.currentTimeMillis());
+	}
+	
+	/**
+	 * Returns a new event which merges the given summary of statistics into 
+	 * the points of the target databases. The point should not be modified
+	 * after the event is created.
+	 * 
+	 * @param point
+	 * 		The summary of statistics to merge.
+	 * @return
+	 * 		The new event without any targets.
+	 */
+	public static StatEvent forPoint(StatPoint point)
+	{
+		return new StatEvent(point.getValueType(), point.getSum(), point.getLongSum(), 0L, false, point, System.currentTimeMillis());
+	}
+	
+	/**
+	 * Returns a new event for the given statistic which happened at the same
+	 * time as this event, without any targets.
+	 * 
+	 * @param statistic
+	 * 		The statistic of the new event.
+	 * @return
+	 * 		The new event.
+	 */
+	protected StatEvent derive(double statistic)
+	{
+		return new StatEvent(StatValue.Double, statistic, 0L, hash, hashed, null, time);
+	}
+	
 	/**
 	 * Executes this event by adding itself to all of its targets.
 	 */
@@ -129,7 +232,77 @@ public class StatEvent
 	 */
 	public float getStatistic() 
 	{
-		return statistic;
+		return (type == StatValue.Long ? (float)longStatistic : (float)statistic);
+	}
+	
+	/**
+	 * The statistic to add to the target databases as a double.
+	 * 
+	 * @return
+	 * 		The value of the statistic.
+	 */
+	public double getDoubleStatistic()
+	{
+		return (type == StatValue.Long ? (double)longStatistic : statistic);
+	}
+	
+	/**
+	 * The statistic to add to the target databases as a long, a statistic 
+	 * which is not a long is rounded to the nearest long.
+	 * 
+	 * @return
+	 * 		The value of the statistic.
+	 */
+	public long getLongStatistic()
+	{
+		return (type == StatValue.Long ? longStatistic : Math.round(statistic));
+	}
+	
+	/**
+	 * The summary of statistics to merge into the target databases.
+	 * 
+	 * @return
+	 * 		The summary of statistics, or null if this event adds a single 
+	 * 		statistic.
+	 */
+	public StatPoint getPoint()
+	{
+		return point;
+	}
+	
+	/**
+	 * The type of the statistic of this event.
+	 * 
+	 * @return
+	 * 		The type of the statistic.
+	 */
+	public StatValue getType()
+	{
+		return type;
+	}
+	
+	/**
+	 * The hash of the item to count in the distinct item estimates of the 
+	 * target databases.
+	 * 
+	 * @return
+	 * 		The hash of the item, only valid if isHashed returns true.
+	 */
+	public long getHash()
+	{
+		return hash;
+	}
+	
+	/**
+	 * Whether this event counts an item in the distinct item estimates of the
+	 * target databases.
+	 * 
+	 * @return
+	 * 		True if this event has the hash of an item.
+	 */
+	public boolean isHashed()
+	{
+		return hashed;
 	}
 	
 }
@@ -55,20 +55,21 @@ public class StatExport
 		double[] avgs = new double[pointCount];
 		float[] mins = new float[pointCount];
 		float[] maxs = new float[pointCount];
-		long[] times = new long[pointCount];
 		
-		// Cache all points
+		// Cache all points from a single state of the archive.
+		int start;
+		do {
+			start = archive.beginRead();
+			archive.getTotals(totals);
+			archive.getSums(sums);
+			archive.getMins(mins);
+			archive.getMaxs(maxs);
+		} while (!archive.endRead(start));
+		
 		for (int i = 0; i < pointCount; i++) {
-			StatPoint p = archive.getPoint(i);
-			
-			totals[i] = p.getTotal();
 			if (totals[i] > 0) {
-				sums[i] = p.getSum();
-				mins[i] = p.getMin();
-				maxs[i] = p.getMax();
-				avgs[i] = p.getAverage();
+				avgs[i] = sums[i] / totals[i];
 			}	
-			times[i] = p.getEndTime();
 		}
 		
 		// Average of all data points.
@@ -293,17 +294,41 @@ public class StatExport
 		PrintStream out = new PrintStream(file);
 		DateFormat df = new SimpleDateFormat("MM/dd/yyyy hh:mm:ss.SSS a");
 		try {
-			out.format("index,start,end,total,sum,avg,min,max\n");
+			boolean squared = archive.getFormat().hasSquares();
+			out.format(squared ? "index,start,end,total,sum,avg,min,max,stddev\n" : "index,start,end,total,sum,avg,min,max\n");
 			int pointCount = archive.getPointCount();
+			long[] times = new long[pointCount];
+			long[] totals = new long[pointCount];
+			double[] sums = new double[pointCount];
+			double[] squares = new double[pointCount];
+			float[] mins = new float[pointCount];
+			float[] maxs = new float[pointCount];
+			
+			int sequence;
+			do {
+				sequence = archive.beginRead();
+				archive.getTimes(times);
+				archive.getTotals(totals);
+				archive.getSums(sums);
+				archive.getSquares(squares);
+				archive.getMins(mins);
+				archive.getMaxs(maxs);
+			} while (!archive.endRead(sequence));
+			
+			long interval = archive.getInterval();
 			for (int i = 0; i < pointCount; i++) 
 			{
-				StatPoint p = archive.getPoint(i);
+				String start = df.format(new Date(times[i]));
+				String end = df.format(new Date(times[i] + interval));
 				
-				String start = df.format(new Date(p.getStartTime()));
-				String end = df.format(new Date(p.getEndTime()));
+				out.format("%d,%s,%s,%d,%f,%f,%f,%f", i, start, end, totals[i], 
+						sums[i], sums[i] / totals[i], mins[i], maxs[i]);
 				
-				out.format("%d,%s,%s,%d,%f,%f,%f,%f\n", i, start, end, p.getTotal(), 
-						p.getSum(), p.getAverage(), p.getMin(), p.getMax());
+				if (squared) {
+					double avg = sums[i] / totals[i];
+					out.format(",%f", Math.sqrt(Math.max(0.0, squares[i] / totals[i] - avg * avg)));
+				}
+				out.format("\n");
 			}
 		}
 		finally {
@@ -329,9 +354,10 @@ public class StatExport
 	
 	public static void export(StatGroup group, Type type, File file) throws IOException
 	{
+		// Export a snapshot of each database so its archives stay consistent.
 		Set<StatDatabase> dbs = group.getDatabases();
 		for (StatDatabase db : dbs) {
-			export(db, type, file);
+			export(db.snapshot(), type, file);
 		}
 	}
 	
@@ -0,0 +1,557 @@
+/* 
+ * NOTICE OF LICENSE
+ * 
+ * This source file is subject to the Open Software License (OSL 3.0) that is 
+ * bundled with this package in the file LICENSE.txt. It is also available 
+ * through the world-wide-web at http://opensource.org/licenses/osl-3.0.php
+ * If you did not receive a copy of the license and are unable to obtain it 
+ * through the world-wide-web, please send an email to pdiffenderfer@gmail.com 
+ * so we can send you a copy immediately. If you use any of this software please
+ * notify me via my website or email, your feedback is much appreciated. 
+ * 
+ * @copyright   Copyright (c) 2011 Magnos Software (http://www.magnos.org)
+ * @license     http://opensource.org/licenses/osl-3.0.php
+ * 				Open Software License (OSL 3.0)
+ */
+
+package org.magnos.stat;
+
+import java.util.IdentityHashMap;
+import java.util.Set;
+
+/**
+ * A series derived from the points of databases, such as an error rate 
+ * (errors / requests) or a percentage. An expression is built once from 
+ * references to databases and operations on other expressions, and is 
+ * evaluated over a range of aligned points of a given interval:
+ * 
+ * <pre>
+ * StatExpression errors = StatExpression.total(errorsDb);
+ * StatExpression requests = StatExpression.total(requestsDb);
+ * StatExpression percent = StatExpression.scale(StatExpression.divide(errors, requests), 100);
+ * double[] values = percent.evaluate(start, end, 60000);
+ * </pre>
+ * 
+ * Nothing is read until an expression is evaluated, and then each database 
+ * is read only over the range evaluated (extended back for moving averages).
+ * The points of each database are added into aligned points once and every
+ * operation is then computed point by point without copying the series.
+ * 
+ * @author Philip Diffenderfer
+ */
+public abstract class StatExpression
+{
+	
+	// The values of a point a reference can read.
+	private static final int TOTAL = 0;
+	private static final int SUM = 1;
+	private static final int AVERAGE = 2;
+	private static final int MIN = 3;
+	private static final int MAX = 4;
+	
+	// The binary operations.
+	private static final int ADD = 0;
+	private static final int SUBTRACT = 1;
+	private static final int MULTIPLY = 2;
+	private static final int DIVIDE = 3;
+	
+	
+	/**
+	 * Returns an expression of the total statistics of each point of the 
+	 * given database.
+	 */
+	public static StatExpression total(StatDatabase database)
+	{
+		return new Reference(database, null, null, null, TOTAL);
+	}
+	
+	/**
+	 * Returns an expression of the sum of the statistics of each point of the 
+	 * given database.
+	 */
+	public static StatExpression sum(StatDatabase database)
+	{
+		return new Reference(database, null, null, null, SUM);
+	}
+	
+	/**
+	 * Returns an expression of the average of the statistics of each point of
+	 * the given database, NaN for a point without statistics.
+	 */
+	public static StatExpression average(StatDatabase database)
+	{
+		return new Reference(database, null, null, null, AVERAGE);
+	}
+	
+	/**
+	 * Returns an expression of the smallest statistic of each point of the
+	 * given database, NaN for a point without statistics.
+	 */
+	public static StatExpression min(StatDatabase database)
+	{
+		return new Reference(database, null, null, null, MIN);
+	}
+	
+	/**
+	 * Returns an expression of the largest statistic of each point of the
+	 * given database, NaN for a point without statistics.
+	 */
+	public static StatExpression max(StatDatabase database)
+	{
+		return new Reference(database, null, null, null, MAX);
+	}
+	
+	/**
+	 * Returns an expression of the total statistics of each point of all
+	 * databases in the group with names that match the given pattern. The
+	 * databases are found each time the expression is evaluated.
+	 * 
+	 * @param group
+	 * 		The group of the databases.
+	 * @param pattern
+	 * 		The pattern the names of the databases must match.
+	 * @param target
+	 * 		The target of the search for databases.
+	 * @return
+	 * 		The new expression.
+	 * @see StatGroup#find(String, StatTarget)
+	 */
+	public static StatExpression totalOf(StatGroup group, String pattern, StatTarget target)
+	{
+		return new Reference(null, group, pattern, target, TOTAL);
+	}
+	
+	/**
+	 * Returns an expression of the sum of the statistics of each point of all
+	 * databases in the group with names that match the given pattern. The
+	 * databases are found each time the expression is evaluated.
+	 * 
+	 * @param group
+	 * 		The group of the databases.
+	 * @param pattern
+	 * 		The pattern the names of the databases must match.
+	 * @param target
+	 * 		The target of the search for databases.
+	 * @return
+	 * 		The new expression.
+	 * @see StatGroup#find(String, StatTarget)
+	 */
+	public static StatExpression sumOf(StatGroup group, String pattern, StatTarget target)
+	{
+		return new Reference(null, group, pattern, target, SUM);
+	}
+	
+	/**
+	 * Returns an expression of a + b.
+	 */
+	public static StatExpression add(StatExpression a, StatExpression b)
+	{
+		return new Operation(a, b, ADD);
+	}
+	
+	/**
+	 * Returns an expression of a - b.
+	 */
+	public static StatExpression subtract(StatExpression a, StatExpression b)
+	{
+		return new Operation(a, b, SUBTRACT);
+	}
+	
+	/**
+	 * Returns an expression of a * b.
+	 */
+	public static StatExpression multiply(StatExpression a, StatExpression b)
+	{
+		return new Operation(a, b, MULTIPLY);
+	}
+	
+	/**
+	 * Returns an expression of a / b, NaN where b is zero.
+	 */
+	public static StatExpression divide(StatExpression a, StatExpression b)
+	{
+		return new Operation(a, b, DIVIDE);
+	}
+	
+	/**
+	 * Returns an expression of the given expression multiplied by a factor.
+	 */
+	public static StatExpression scale(StatExpression a, final double factor)
+	{
+		return new StatExpression(a) {
+			@Override
+			protected Evaluator create(final Evaluator[] operands) {
+				return new Evaluator(operands) {
+					@Override
+					protected double get(int index) {
+						return operands[0].get(index) * factor;
+					}
+				};
+			}
+		};
+	}
+	
+	/**
+	 * Returns an expression of the given expression per second, for example
+	 * the rate of the total statistics of a database.
+	 */
+	public static StatExpression rate(StatExpression a)
+	{
+		return new StatExpression(a) {
+			@Override
+			protected Evaluator create(final Evaluator[] operands) {
+				return new Evaluator(operands) {
+					@Override
+					protected double get(int index) {
+						return operands[0].get(index) * 1000.0 / interval;
+					}
+				};
+			}
+		};
+	}
+	
+	/**
+	 * Returns an expression of the average of the given number of points of
+	 * the given expression up to each point, ignoring NaN values. The points 
+	 * before the range evaluated are read as well. The average is kept as a
+	 * running sum while the points are evaluated in order.
+	 * 
+	 * @param a
+	 * 		The expression to average.
+	 * @param points
+	 * 		The number of points to average.
+	 * @return
+	 * 		The new expression.
+	 * @throws IllegalArgumentException
+	 * 		The number of points is not positive.
+	 */
+	public static StatExpression movingAverage(StatExpression a, final int points)
+	{
+		if (points <= 0) {
+			throw new IllegalArgumentException("A moving average requires a positive number of points");
+		}
+		return new StatExpression(a) {
+			@Override
+			protected Evaluator create(final Evaluator[] operands) {
+				return new Evaluator(operands) {
+					// The last point averaged, and the sum and number of the 
+					// values which are not NaN in its window.
+					private boolean started;
+					private int position;
+					private double sum;
+					private int count;
+					@Override
+					protected void require(int first, int end) {
+						super.require(first - points + 1, end);
+					}
+					@Override
+					protected double get(int index) {
+						if (started && index == position + 1) {
+							add(index, 1);
+							add(index - points, -1);
+						}
+						else if (!started || index != position) {
+							sum = 0.0;
+							count = 0;
+							for (int i = index - points + 1; i <= index; i++) {
+								add(i, 1);
+							}
+						}
+						started = true;
+						position = index;
+						return (count == 0 ? Double.NaN : sum / count);
+					}
+					private void add(int index, int sign) {
+						double value = operands[0].get(index);
+						if (!Double.isNaN(value)) {
+							sum += value * sign;
+							count += sign;
+						}
+					}
+				};
+			}
+		};
+	}
+	
+	
+	// The expressions this expression is computed from.
+	private final StatExpression[] operands;
+	
+	
+	/**
+	 * Instantiates a new StatExpression.
+	 * 
+	 * @param operands
+	 * 		The expressions the new expression is computed from.
+	 */
+	protected StatExpression(StatExpression ... operands)
+	{
+		this.operands = operands;
+	}
+	
+	/**
+	 * Evaluates this expression over the aligned points of the given interval
+	 * from the start time up to the end time. An expression is never 
+	 * modified by an evaluation, so expressions (and the expressions they 
+	 * share) can be evaluated by any number of threads at once.
+	 * 
+	 * @param start
+	 * 		The start time of the first point in milliseconds since the Unix
+	 * 		epoch.
+	 * @param end
+	 * 		The end of the range of the points.
+	 * @param interval
+	 * 		The interval of each point in milliseconds.
+	 * @return
+	 * 		The value of the expression at each point.
+	 * @throws IllegalArgumentException
+	 * 		The interval is not positive or the end is before the start.
+	 */
+	public double[] evaluate(long start, long end, long interval)
+	{
+		if (interval <= 0 || end < start) {
+			throw new IllegalArgumentException("Invalid expression range or interval");
+		}
+		int size = (int)((end - start + interval - 1) / interval);
+		
+		// Find the range each reference needs, then read each once.
+		Evaluator evaluator = compile(new IdentityHashMap<StatExpression, Evaluator>());
+		evaluator.require(0, size);
+		evaluator.load(start, interval);
+		
+		double[] values = new double[size];
+		for (int i = 0; i < size; i++) {
+			values[i] = evaluator.get(i);
+		}
+		return values;
+	}
+	
+	/**
+	 * Returns the evaluator of this expression for a single evaluation, an
+	 * expression used more than once in the evaluation has one evaluator.
+	 */
+	private Evaluator compile(IdentityHashMap<StatExpression, Evaluator> evaluators)
+	{
+		Evaluator evaluator = evaluators.get(this);
+		if (evaluator == null) {
+			Evaluator[] evaluated = new Evaluator[operands.length];
+			for (int i = 0; i < operands.length; i++) {
+				evaluated[i] = operands[i].compile(evaluators);
+			}
+			evaluator = create(evaluated);
+			evaluators.put(this, evaluator);
+		}
+		return evaluator;
+	}
+	
+	/**
+	 * Returns a new evaluator of this expression.
+	 * 
+	 * @param operands
+	 * 		The evaluators of the operands of this expression.
+	 * @return
+	 * 		The new evaluator.
+	 */
+	protected abstract Evaluator create(Evaluator[] operands);
+	
+	
+	/**
+	 * The state of an expression during a single evaluation, which is only
+	 * used by the thread evaluating.
+	 * 
+	 * @author Philip Diffenderfer
+	 */
+	protected static abstract class Evaluator
+	{
+		
+		// The evaluators of the operands of the expression.
+		protected final Evaluator[] operands;
+		
+		// The interval of the points evaluated.
+		protected long interval;
+		
+		/**
+		 * Instantiates a new Evaluator.
+		 * 
+		 * @param operands
+		 * 		The evaluators of the operands of the expression.
+		 */
+		protected Evaluator(Evaluator[] operands)
+		{
+			this.operands = operands;
+		}
+		
+		/**
+		 * Adds the given points to the points this expression needs. The 
+		 * index of a point is relative to the first point evaluated and can
+		 * be negative.
+		 * 
+		 * @param first
+		 * 		The index of the first point needed.
+		 * @param end
+		 * 		The index after the last point needed.
+		 */
+		protected void require(int first, int end)
+		{
+			for (Evaluator e : operands) {
+				e.require(first, end);
+			}
+		}
+		
+		/**
+		 * Reads the points this expression needs.
+		 * 
+		 * @param start
+		 * 		The start time of the first point evaluated.
+		 * @param interval
+		 * 		The interval of each point.
+		 */
+		protected void load(long start, long interval)
+		{
+			this.interval = interval;
+			for (Evaluator e : operands) {
+				e.load(start, interval);
+			}
+		}
+		
+		/**
+		 * Returns the value of the expression at the given point, relative to 
+		 * the first point evaluated.
+		 */
+		protected abstract double get(int index);
+		
+	}
+	
+	/**
+	 * A value of the points of a database or the databases matching a pattern.
+	 */
+	private static class Reference extends StatExpression
+	{
+		private final StatDatabase database;
+		private final StatGroup group;
+		private final String pattern;
+		private final StatTarget target;
+		private final int value;
+		
+		Reference(StatDatabase database, StatGroup group, String pattern, StatTarget target, int value)
+		{
+			this.database = database;
+			this.group = group;
+			this.pattern = pattern;
+			this.target = target;
+			this.value = value;
+		}
+		
+		@Override
+		protected Evaluator create(Evaluator[] operands)
+		{
+			return new Points();
+		}
+		
+		/**
+		 * The aligned points of the reference read for an evaluation.
+		 */
+		private class Points extends Evaluator
+		{
+			// The points needed and the aligned points read.
+			private int first = Integer.MAX_VALUE;
+			private int end = Integer.MIN_VALUE;
+			private StatSeries series;
+			
+			Points()
+			{
+				super(new Evaluator[0]);
+			}
+			
+			@Override
+			protected void require(int first, int end)
+			{
+				this.first = Math.min(this.first, first);
+				this.end = Math.max(this.end, end);
+			}
+			
+			@Override
+			protected void load(long start, long interval)
+			{
+				super.load(start, interval);
+				
+				// A reference used by several expressions is read once.
+				if (series != null || first >= end) {
+					return;
+				}
+				long from = start + interval * first;
+				long to = start + interval * end;
+				series = new StatSeries(from, interval, end - first);
+				
+				if (database != null) {
+					database.aggregate(from, to, interval, series, null);
+				}
+				else {
+					Set<StatDatabase> databases = group.find(pattern, target);
+					for (StatDatabase db : databases) {
+						db.aggregate(from, to, interval, series, null);
+					}
+				}
+			}
+			
+			@Override
+			protected double get(int index)
+			{
+				int point = index - first;
+				
+				switch (value) {
+				case TOTAL:
+					return series.getTotal(point);
+				case SUM:
+					return series.getSum(point);
+				case AVERAGE:
+					return (series.getTotal(point) == 0 ? Double.NaN : series.getAverage(point));
+				case MIN:
+					return series.getMin(point);
+				case MAX:
+					return series.getMax(point);
+				}
+				return Double.NaN;
+			}
+		}
+	}
+	
+	/**
+	 * An operation on the values of two expressions.
+	 */
+	private static class Operation extends StatExpression
+	{
+		private final int operator;
+		
+		Operation(StatExpression a, StatExpression b, int operator)
+		{
+			super(a, b);
+			this.operator = operator;
+		}
+		
+		@Override
+		protected Evaluator create(final Evaluator[] operands)
+		{
+			return new Evaluator(operands) {
+				@Override
+				protected double get(int index) {
+					double x = operands[0].get(index);
+					double y = operands[1].get(index);
+					
+					switch (operator) {
+					case ADD:
+						return x + y;
+					case SUBTRACT:
+						return x - y;
+					case MULTIPLY:
+						return x * y;
+					case DIVIDE:
+						return (y == 0.0 ? Double.NaN : x / y);
+					}
+					return Double.NaN;
+				}
+			};
+		}
+	}
+	
+}
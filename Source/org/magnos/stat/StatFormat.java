@@ -16,10 +16,10 @@
 
 package org.magnos.stat;
 
+import java.util.Arrays;
+
 import org.magnos.data.Store;
 import org.magnos.data.StoreAccess;
-import org.magnos.data.var.DoubleVar;
-import org.magnos.data.var.FloatVar;
 import org.magnos.data.var.IntVar;
 import org.magnos.data.var.LongVar;
 import org.magnos.data.var.StringVar;
@@ -41,6 +41,52 @@ import org.magnos.data.var.StringVar;
  * sf.compile();					// database size = 3328 bytes
  * </pre>
  * 
+ * If the format is aligned the points of each archive start on a multiple of
+ * the archive interval since the Unix epoch instead of the creation time of 
+ * the database, this way points of different databases with the same format
+ * cover the same time. Archives with an interval and/or number of points that
+ * are a power of two find the point for a statistic with shifts and masks
+ * instead of divisions.
+ * 
+ * A database is kept in a single store, which is addressed with 32-bit 
+ * locations, so a format is limited to databases of MAX_DATABASE_SIZE (2GB)
+ * and a larger format is rejected when it's compiled. Long retention at a 
+ * high resolution should be split across several databases.
+ * 
+ * The points of an archive are stored as records by default, a format can
+ * instead store them in columns (see StatLayout). Databases written with any
+ * layout other than the original have an extended header which holds the 
+ * signature of the layout so a database is never read with the wrong layout.
+ * 
+ * Coarse archives which cover long periods of time can be compact, the points
+ * of a compact archive store their total as an unsigned 32-bit integer and 
+ * their sum as a 32-bit float (see COMPACT_POINT_SIZE). This trades precision
+ * of the sum (and a total limited to 4294967295) for a smaller database.
+ * 
+ * A format can also keep the sum of the squares of the statistics in each 
+ * point so the variance and standard deviation of each point are known. This
+ * adds 8 bytes to each point (4 bytes to a compact point).
+ * 
+ * A format can also keep a histogram of the statistics in each point so the
+ * quantiles of each point can be estimated (see StatHistogram). This adds 4 
+ * bytes for each bucket of the histogram to each point.
+ * 
+ * A format can also keep an estimate of the number of distinct items added to
+ * each point (see StatCardinality and StatDatabase.addHash). This adds 
+ * 2^precision bytes to each point.
+ * 
+ * Statistics are floats by default, a format can instead hold doubles or 
+ * longs (see StatValue) which widens the smallest and largest statistic of
+ * each point to 8 bytes.
+ * 
+ * A format can describe counters, where each statistic added is a reading 
+ * of a counter that only increases and the rate the counter increases per
+ * second is stored instead of the reading.
+ * 
+ * Points which don't need all of their original values can leave out their
+ * sum or their smallest and largest statistics (the total is always kept), 
+ * and any number of StatAggregators can be added to keep other values.
+ * 
  * @author Philip Diffenderfer
  * 
  */
@@ -64,6 +110,20 @@ public final class StatFormat
 	 */
 	public static final int DATABASE_HEADER_SIZE = 16;
 	
+	/**
+	 * The size of the database header in bytes for databases that are not in
+	 * the original layout.
+	 * 		"SRRX"(4) archiveCount(4) creationTime(8) signature(8)
+	 */
+	public static final int EXTENDED_HEADER_SIZE = 24;
+	
+	/**
+	 * The largest size of a database in bytes (2GB). Stores are addressed 
+	 * with 32-bit locations so a database cannot be any larger, a format 
+	 * which is larger can't be compiled.
+	 */
+	public static final long MAX_DATABASE_SIZE = Integer.MAX_VALUE;
+	
 	/**
 	 * The size of an archives header in bytes. 
 	 * 		interval(8), points(4), time(8), index(4) 
@@ -72,10 +132,41 @@ public final class StatFormat
 	
 	/**
 	 * The size of a point in bytes. 
-	 * 		total(8) sum(8) min(4) max(4)
+	 * 		total(8) sum(8) min(4) max(4) [squares(8)] [histogram(4*n)] [cardinality(2^p)] [aggregators]
 	 */
 	public static final int POINT_SIZE = StatPoint.SIZE;
 	
+	/**
+	 * The size of a point in a compact archive in bytes. 
+	 * 		total(4) sum(4) min(4) max(4) [squares(4)] [histogram(4*n)] [cardinality(2^p)] [aggregators]
+	 */
+	public static final int COMPACT_POINT_SIZE = 16;
+	
+	/**
+	 * The tag of a database in the original layout.
+	 */
+	public static final String TAG = "SRRD";
+	
+	/**
+	 * The tag of a database with an extended header.
+	 */
+	public static final String EXTENDED_TAG = "SRRX";
+	
+	
+	// The index of each value of a point, and the size of each value in bytes.
+	protected static final int FIELD_TOTAL = 0;
+	protected static final int FIELD_SUM = 1;
+	protected static final int FIELD_MIN = 2;
+	protected static final int FIELD_MAX = 3;
+	protected static final int FIELD_SQUARES = 4;
+	protected static final int FIELD_HISTOGRAM = 5;
+	protected static final int FIELD_CARDINALITY = 6;
+	protected static final int[] FIELD_SIZE = {8, 8, 4, 4, 8, 0, 0};
+	protected static final int[] COMPACT_FIELD_SIZE = {4, 4, 4, 4, 4, 0, 0};
+	
+	// The relative error allowed between the average and extremes of a point.
+	private static final double VALIDATE_EPSILON = 1e-9;
+	
 	
 	// The number of archives in the format.
 	private final int archiveCount;
@@ -86,18 +177,68 @@ public final class StatFormat
 	// The number of points in each of the archives.
 	private final int[] archivePoints;
 	
+	// The set of consolidation functions each of the archives keeps.
+	private final int[] archiveFunctions;
+	
 	
 	// Whether or not the format is read-write (false) or read only (true).
 	private boolean compiled = false;
 	
+	// Whether archive points start on multiples of their interval.
+	private boolean aligned = false;
+	
+	// How the points of each archive are laid out.
+	private StatLayout layout = StatLayout.Row;
+	
+	// The index of the first compact archive.
+	private int compactIndex = Integer.MAX_VALUE;
+	
+	// The type of the statistics.
+	private StatValue valueType = StatValue.Float;
+	
+	// Whether statistics are readings of a counter that are stored as rates.
+	private boolean counter = false;
+	
+	// Whether points keep the sum of their statistics.
+	private boolean sum = true;
+	
+	// Whether points keep their smallest and largest statistics.
+	private boolean extremes = true;
+	
+	// Whether points keep the sum of the squares of their statistics.
+	private boolean squares = false;
+	
+	// The lowest value and number of buckets of the histogram of each point.
+	private float histogramLowest = 1.0f;
+	private int histogramBuckets = 0;
+	
+	// The precision of the distinct item estimate of each point.
+	private int cardinalityPrecision = 0;
+	
+	// The aggregators which keep additional values in each point.
+	private StatAggregator[] aggregators = {};
+	
 	// The offsets in bytes of each of the archives in the database. This is
 	// only set once the format is compiled.
 	private final int[] archiveOffset;
 	
+	// The offset in bytes of each value of the first point in each archive,
+	// relative to the first point of the archive. This is only set once the 
+	// format is compiled, there is a value for each field and aggregator.
+	private final int[][] fieldOffset;
+	
+	// The number of bytes between each value of consecutive points in each
+	// archive. This is only set once the format is compiled.
+	private final int[][] fieldStride;
+	
 	// The size of the database in bytes. This is only set once the format is 
 	// compiled.
 	private int size;
 	
+	// The signature of the layout of the database. This is only set once the
+	// format is compiled.
+	private long signature;
+	
 	
 	/**
 	 * Instantiates a new StatFormat.
@@ -110,7 +251,10 @@ public final class StatFormat
 		this.archiveCount = archiveCount;
 		this.archiveInterval = new long[archiveCount];
 		this.archivePoints = new int[archiveCount];
+		this.archiveFunctions = new int[archiveCount];
 		this.archiveOffset = new int[archiveCount];
+		this.fieldOffset = new int[archiveCount][];
+		this.fieldStride = new int[archiveCount][];
 	}
 	
 	/**
@@ -145,6 +289,475 @@ public final class StatFormat
 		
 		archiveInterval[index] = interval;
 		archivePoints[index] = points;	
+		archiveFunctions[index] = StatFunction.getAll();
+	}
+	
+	/**
+	 * Sets the format of the archive at the given index and the consolidation
+	 * functions its points keep. A function the format does not keep (like 
+	 * the squares when setSquares is false) is not kept by any archive.
+	 * 
+	 * @param index
+	 * 		The index of the archive in the database.
+	 * @param interval
+	 * 		The interval of the archive in milliseconds. 
+	 * @param points
+	 * 		The number of points in the archive.
+	 * @param functions
+	 * 		The consolidation functions the points of the archive keep.
+	 * @see StatFunction
+	 */
+	public void set(int index, long interval, int points, StatFunction ... functions) 
+	{
+		set(index, interval, points);
+		
+		archiveFunctions[index] = 0;
+		for (StatFunction function : functions) {
+			archiveFunctions[index] |= function.getBit();
+		}
+	}
+	
+	/**
+	 * Returns whether the points of the given archive keep a consolidation
+	 * function.
+	 * 
+	 * @param index
+	 * 		The index of the archive in the database.
+	 * @param function
+	 * 		The consolidation function.
+	 * @return
+	 * 		True if the archive and the format keep the function.
+	 */
+	public boolean hasFunction(int index, StatFunction function)
+	{
+		if ((archiveFunctions[index] & function.getBit()) == 0) {
+			return false;
+		}
+		switch (function) {
+		case Sum:
+			return sum;
+		case Min:
+		case Max:
+			return extremes;
+		case Squares:
+			return squares;
+		}
+		return true;
+	}
+	
+	/**
+	 * Sets whether the points of the archives start on a multiple of their
+	 * interval since the Unix epoch. This only affects newly written 
+	 * databases, an existing database keeps the alignment it was written with.
+	 * 
+	 * @param aligned
+	 * 		True if points should be aligned to their interval, false if they
+	 * 		should be aligned to the creation time of the database.
+	 */
+	public void setAligned(boolean aligned)
+	{
+		// If its already compiled, throw an exception.
+		check(true);
+		
+		this.aligned = aligned;
+	}
+	
+	/**
+	 * Returns whether the points of the archives start on a multiple of their
+	 * interval since the Unix epoch.
+	 * 
+	 * @return
+	 * 		True if the format is aligned, otherwise false.
+	 */
+	public boolean isAligned()
+	{
+		return aligned;
+	}
+	
+	/**
+	 * Sets how the points of each archive are laid out in the database.
+	 * 
+	 * @param layout
+	 * 		The layout of the points.
+	 * @see StatLayout
+	 */
+	public void setLayout(StatLayout layout)
+	{
+		// If its already compiled, throw an exception.
+		check(true);
+		
+		this.layout = layout;
+	}
+	
+	/**
+	 * Returns how the points of each archive are laid out in the database.
+	 * 
+	 * @return
+	 * 		The layout of the points.
+	 */
+	public StatLayout getLayout()
+	{
+		return layout;
+	}
+	
+	/**
+	 * Sets the index of the first compact archive, the archive at the given
+	 * index and all archives after it are compact. Archives are typically
+	 * ordered from the shortest to the longest interval so the coarse 
+	 * archives are the ones made compact.
+	 * 
+	 * @param index
+	 * 		The index of the first compact archive.
+	 * @see #COMPACT_POINT_SIZE
+	 */
+	public void setCompactIndex(int index)
+	{
+		// If its already compiled, throw an exception.
+		check(true);
+		
+		this.compactIndex = index;
+	}
+	
+	/**
+	 * Returns the index of the first compact archive. If no archives are
+	 * compact this is at least the number of archives.
+	 * 
+	 * @return
+	 * 		The index of the first compact archive.
+	 */
+	public int getCompactIndex()
+	{
+		return compactIndex;
+	}
+	
+	/**
+	 * Returns whether the points of the given archive are compact.
+	 * 
+	 * @param index
+	 * 		The index of the archive in the database.
+	 * @return
+	 * 		True if the points of the archive are compact.
+	 */
+	public boolean isCompact(int index)
+	{
+		return (index >= compactIndex);
+	}
+	
+	/**
+	 * Sets the type of the statistics added to the database. 
+	 * 
+	 * @param valueType
+	 * 		The type of the statistics.
+	 * @see StatValue
+	 */
+	public void setValueType(StatValue valueType)
+	{
+		// If its already compiled, throw an exception.
+		check(true);
+		
+		this.valueType = valueType;
+	}
+	
+	/**
+	 * Returns the type of the statistics added to the database.
+	 * 
+	 * @return
+	 * 		The type of the statistics.
+	 */
+	public StatValue getValueType()
+	{
+		return valueType;
+	}
+	
+	/**
+	 * Sets whether statistics added to databases of this format are readings
+	 * of a counter that only increases (like bytes sent). A database of a 
+	 * counter remembers the last reading and stores the increase per second
+	 * since it instead of the reading, a reading less than the last is taken
+	 * as the counter being reset to zero. This does not change the layout of
+	 * the database.
+	 * 
+	 * @param counter
+	 * 		True if statistics are readings of a counter.
+	 */
+	public void setCounter(boolean counter)
+	{
+		// If its already compiled, throw an exception.
+		check(true);
+		
+		this.counter = counter;
+	}
+	
+	/**
+	 * Returns whether statistics added to databases of this format are
+	 * readings of a counter that are stored as rates.
+	 * 
+	 * @return
+	 * 		True if statistics are readings of a counter.
+	 */
+	public boolean isCounter()
+	{
+		return counter;
+	}
+	
+	/**
+	 * Sets whether the points of each archive keep the sum of their 
+	 * statistics. Points without a sum have no average.
+	 * 
+	 * @param sum
+	 * 		True if points should keep their sum.
+	 */
+	public void setSum(boolean sum)
+	{
+		// If its already compiled, throw an exception.
+		check(true);
+		
+		this.sum = sum;
+	}
+	
+	/**
+	 * Returns whether the points of each archive keep the sum of their 
+	 * statistics.
+	 * 
+	 * @return
+	 * 		True if points keep their sum.
+	 */
+	public boolean hasSum()
+	{
+		return sum;
+	}
+	
+	/**
+	 * Sets whether the points of each archive keep their smallest and largest
+	 * statistics.
+	 * 
+	 * @param extremes
+	 * 		True if points should keep their smallest and largest statistics.
+	 */
+	public void setExtremes(boolean extremes)
+	{
+		// If its already compiled, throw an exception.
+		check(true);
+		
+		this.extremes = extremes;
+	}
+	
+	/**
+	 * Returns whether the points of each archive keep their smallest and 
+	 * largest statistics.
+	 * 
+	 * @return
+	 * 		True if points keep their smallest and largest statistics.
+	 */
+	public boolean hasExtremes()
+	{
+		return extremes;
+	}
+	
+	/**
+	 * Sets whether the points of each archive keep the sum of the squares of
+	 * their statistics, which is required for the variance and standard 
+	 * deviation of a point.
+	 * 
+	 * @param squares
+	 * 		True if points should keep the sum of squares.
+	 * @see StatPoint#getVariance()
+	 */
+	public void setSquares(boolean squares)
+	{
+		// If its already compiled, throw an exception.
+		check(true);
+		
+		this.squares = squares;
+	}
+	
+	/**
+	 * Returns whether the points of each archive keep the sum of the squares
+	 * of their statistics.
+	 * 
+	 * @return
+	 * 		True if points keep the sum of squares.
+	 */
+	public boolean hasSquares()
+	{
+		return squares;
+	}
+	
+	/**
+	 * Sets the histogram each point keeps of its statistics, which is required
+	 * to estimate the quantiles of a point. Each octave of values starting at
+	 * the lowest value has StatHistogram.SUB_BUCKETS buckets, so the number of
+	 * buckets needed to cover values up to some highest value is:
+	 * <pre>
+	 * SUB_BUCKETS * log2(highest / lowest)
+	 * </pre>
+	 * 
+	 * @param lowest
+	 * 		The lowest value of the histogram, must be positive.
+	 * @param buckets
+	 * 		The number of buckets in the histogram, or 0 for no histogram.
+	 * @throws StatFormatException
+	 * 		The lowest value is not positive or the number of buckets is 
+	 * 		negative.
+	 * @see StatPoint#getQuantile(double)
+	 */
+	public void setHistogram(float lowest, int buckets)
+	{
+		// If its already compiled, throw an exception.
+		check(true);
+		
+		if (!(lowest > 0.0f) || Float.isInfinite(lowest) || buckets < 0) {
+			throw new StatFormatException(this, "Invalid histogram");
+		}
+		
+		this.histogramLowest = lowest;
+		this.histogramBuckets = buckets;
+	}
+	
+	/**
+	 * Returns the lowest value of the histogram of each point.
+	 * 
+	 * @return
+	 * 		The lowest value of the histogram.
+	 */
+	public float getHistogramLowest()
+	{
+		return histogramLowest;
+	}
+	
+	/**
+	 * Returns the number of buckets in the histogram of each point.
+	 * 
+	 * @return
+	 * 		The number of buckets in the histogram, 0 if points keep no 
+	 * 		histogram.
+	 */
+	public int getHistogramBuckets()
+	{
+		return histogramBuckets;
+	}
+	
+	/**
+	 * Returns whether each point keeps a histogram of its statistics.
+	 * 
+	 * @return
+	 * 		True if points keep a histogram.
+	 */
+	public boolean hasHistogram()
+	{
+		return (histogramBuckets > 0);
+	}
+	
+	/**
+	 * Sets the precision of the estimate each point keeps of the number of
+	 * distinct items added to it. Each point has 2^precision bytes of 
+	 * registers, a higher precision gives a more accurate estimate.
+	 * 
+	 * @param precision
+	 * 		The precision between StatCardinality.MIN_PRECISION and 
+	 * 		StatCardinality.MAX_PRECISION, or 0 for no estimate.
+	 * @throws StatFormatException
+	 * 		The precision is not valid.
+	 * @see StatPoint#getDistinct()
+	 */
+	public void setCardinality(int precision)
+	{
+		// If its already compiled, throw an exception.
+		check(true);
+		
+		if (precision != 0 && (precision < StatCardinality.MIN_PRECISION || precision > StatCardinality.MAX_PRECISION)) {
+			throw new StatFormatException(this, "Invalid cardinality precision");
+		}
+		
+		this.cardinalityPrecision = precision;
+	}
+	
+	/**
+	 * Returns the precision of the estimate each point keeps of the number of
+	 * distinct items added to it.
+	 * 
+	 * @return
+	 * 		The precision of the estimate, 0 if points keep no estimate.
+	 */
+	public int getCardinalityPrecision()
+	{
+		return cardinalityPrecision;
+	}
+	
+	/**
+	 * Returns whether each point keeps an estimate of the number of distinct
+	 * items added to it.
+	 * 
+	 * @return
+	 * 		True if points keep an estimate.
+	 */
+	public boolean hasCardinality()
+	{
+		return (cardinalityPrecision > 0);
+	}
+	
+	/**
+	 * Adds an aggregator which keeps an additional value in each point. The
+	 * values of the aggregators are stored after all other values of a point
+	 * in the order the aggregators are added.
+	 * 
+	 * @param aggregator
+	 * 		The aggregator to add.
+	 * @return
+	 * 		The index of the aggregator in the format.
+	 * @see StatPoint#getAggregate(int)
+	 */
+	public int addAggregator(StatAggregator aggregator)
+	{
+		// If its already compiled, throw an exception.
+		check(true);
+		
+		aggregators = Arrays.copyOf(aggregators, aggregators.length + 1);
+		aggregators[aggregators.length - 1] = aggregator;
+		
+		return aggregators.length - 1;
+	}
+	
+	/**
+	 * Returns the number of aggregators in the format.
+	 * 
+	 * @return
+	 * 		The number of aggregators added to the format.
+	 */
+	public int getAggregatorCount()
+	{
+		return aggregators.length;
+	}
+	
+	/**
+	 * Returns the aggregator at the given index.
+	 * 
+	 * @param index
+	 * 		The index of the aggregator in the format.
+	 * @return
+	 * 		The aggregator at the given index.
+	 */
+	public StatAggregator getAggregator(int index)
+	{
+		return aggregators[index];
+	}
+	
+	/**
+	 * Returns the index of the aggregator with the given name.
+	 * 
+	 * @param name
+	 * 		The name of the aggregator.
+	 * @return
+	 * 		The index of the aggregator, or -1 if none has the given name.
+	 */
+	public int getAggregatorIndex(String name)
+	{
+		for (int i = 0; i < aggregators.length; i++) {
+			if (aggregators[i].getName().equals(name)) {
+				return i;
+			}
+		}
+		return -1;
 	}
 	
 	/**
@@ -154,23 +767,98 @@ public final class StatFormat
 	 * 
 	 * @return
 	 * 		The reference to this StatFormat.
+	 * @throws StatFormatException
+	 * 		The database would be larger than MAX_DATABASE_SIZE.
 	 */
-	public StatFormat compile() 
+	public StatFormat compile() throws StatFormatException
 	{
 		// If not already compiled...
 		if (!compiled) {
-			// Compute the size of the database and the archive offsets.
-			int offset = DATABASE_HEADER_SIZE;
+			// Compute the size of the database and the archive offsets. The
+			// size is computed with 64-bits so an overflow can be detected.
+			long offset = getHeaderSize();
 			for (int i = 0; i < archiveCount; i++) {
-				archiveOffset[i] = offset;
-				offset += ARCHIVE_HEADER_SIZE;
-				offset += POINT_SIZE * archivePoints[i];
+				long archiveSize = (long)archivePoints[i] * getPointSize(i) + ARCHIVE_HEADER_SIZE;
+				if (offset + archiveSize > MAX_DATABASE_SIZE) {
+					throw new StatFormatException(this, "Database is larger than " + MAX_DATABASE_SIZE + " bytes");
+				}
+				archiveOffset[i] = (int)offset;
+				offset += archiveSize;
+				
+				// Compute where each value of the points are.
+				fieldOffset[i] = new int[getFieldCount()];
+				fieldStride[i] = new int[getFieldCount()];
+				int field = 0;
+				for (int k = 0; k < getFieldCount(); k++) {
+					int fieldSize = getFieldSize(i, k);
+					fieldOffset[i][k] = field;
+					if (layout == StatLayout.Row) {
+						fieldStride[i][k] = getPointSize(i);
+						field += fieldSize;
+					}
+					else {
+						fieldStride[i][k] = fieldSize;
+						field += fieldSize * archivePoints[i];
+					}
+				}
 			}
-			size = offset;
+			size = (int)offset;
+			signature = computeSignature();
 			compiled = true;
 		}
 		return this;
 	}
+	
+	/**
+	 * Returns whether the database has an extended header. Only databases in
+	 * the original layout do not.
+	 */
+	private boolean isExtended()
+	{
+		if (layout != StatLayout.Row || compactIndex < archiveCount || valueType != StatValue.Float || !sum || !extremes || 
+			squares || hasHistogram() || hasCardinality() || aggregators.length > 0) {
+			return true;
+		}
+		for (int i = 0; i < archiveCount; i++) {
+			if (archiveFunctions[i] != StatFunction.getAll()) {
+				return true;
+			}
+		}
+		return false;
+	}
+	
+	/**
+	 * Returns the size of the database header in bytes.
+	 */
+	protected int getHeaderSize()
+	{
+		return (isExtended() ? EXTENDED_HEADER_SIZE : DATABASE_HEADER_SIZE);
+	}
+	
+	/**
+	 * Computes a signature of the layout of all values in the database.
+	 */
+	private long computeSignature()
+	{
+		long sig = layout.ordinal();
+		if (valueType != StatValue.Float) {
+			sig = sig * 31 + valueType.ordinal();
+		}
+		if (hasHistogram()) {
+			sig = sig * 31 + Float.floatToIntBits(histogramLowest);
+		}
+		for (int k = 0; k < aggregators.length; k++) {
+			sig = sig * 31 + aggregators[k].getName().hashCode();
+		}
+		for (int i = 0; i < archiveCount; i++) {
+			for (int k = 0; k < getFieldCount(); k++) {
+				sig = sig * 31 + getFieldSize(i, k);
+				sig = sig * 31 + fieldOffset[i][k];
+				sig = sig * 31 + fieldStride[i][k];
+			}
+		}
+		return sig;
+	}
 
 	/**
 	 * Validates the contents of the store against this format. If this format
@@ -199,9 +887,14 @@ public final class StatFormat
 		}
 		
 		// Check tag
-		if (!getTag(store).take().equals("SRRD")) {
+		if (!getTag(store).take().equals(isExtended() ? EXTENDED_TAG : TAG)) {
 			throw new StatFormatException(this, "Invalid tag");
 		}
+		
+		// Check layout signature
+		if (isExtended() && getSignature(store).take() != signature) {
+			throw new StatFormatException(this, "Layout signature mismatch");
+		}
 
 		// Check archive count match
 		if (getArchiveCount(store).take() != archiveCount) {
@@ -236,23 +929,30 @@ public final class StatFormat
 		}
 		
 		// Check archive points
+		StatPoint point = new StatPoint();
 		for (int i = 0; i < archiveCount; i++) 
 		{
 			for (int j = 0; j < archivePoints[i]; j++) 
 			{
-				LongVar ptotal = getPointTotal(i, j, store);
-				DoubleVar psum = getPointSum(i, j, store);
-				FloatVar pmin = getPointMin(i, j, store);
-				FloatVar pmax = getPointMax(i, j, store);
+				point.read(this, i, j, store);
 				
-				if (ptotal.take() < 0) {
+				if (point.getTotal() < 0) {
 					throw new StatFormatException(this, "Negative point total");
 				}
-				double average = psum.take() / ptotal.get();
-				if (pmin.take() > average) {
+				if (squares && point.getSquares() < 0) {
+					throw new StatFormatException(this, "Negative point squares");
+				}
+				// The sum of a compact point is too imprecise to compare.
+				if (isCompact(i)) {
+					continue;
+				}
+				// Allow for the rounding error of the sum of doubles.
+				double average = point.getAverage();
+				double error = Math.abs(average) * VALIDATE_EPSILON;
+				if (point.getMinimum() > average + error) {
 					throw new StatFormatException(this, "Invalid point min or average ");
 				}
-				if (pmax.take() < average) {
+				if (point.getMaximum() < average - error) {
 					throw new StatFormatException(this, "Invalid point max or average");
 				}
 			}
@@ -283,30 +983,55 @@ public final class StatFormat
 		store.capacity(size);
 		
 		// Add the tag, archive count, and creation time to the database header.
-		getTag(store).put("SRRD");
+		getTag(store).put(isExtended() ? EXTENDED_TAG : TAG);
 		getArchiveCount(store).put(archiveCount);
 		getCreation(store).put(currentTime);
 		
+		// Add the layout signature to an extended header.
+		if (isExtended()) {
+			getSignature(store).put(signature);
+		}
+		
+		// An empty point to write to each point in each archive.
+		StatPoint point = new StatPoint();
+		
 		// For each archive in the database...
 		for (int i = 0; i < archiveCount; i++) 
 		{
 			// Write the archives header
 			getArchiveInterval(i, store).put(archiveInterval[i]);
 			getArchivePoints(i, store).put(archivePoints[i]);
-			getArchiveTime(i, store).put(currentTime);
+			getArchiveTime(i, store).put(getArchiveStart(i, currentTime));
 			getArchiveIndex(i, store).put(0);
 			
 			// Write each point in the header.
 			for (int j = 0; j < archivePoints[i]; j++) 
 			{
-				getPointTotal(i, j, store).put(0);
-				getPointSum(i, j, store).put(0.0);
-				getPointMin(i, j, store).put(+Float.MAX_VALUE);
-				getPointMax(i, j, store).put(-Float.MAX_VALUE);
+				point.write(this, i, j, store);
 			}
 		}
 	}
 	
+	/**
+	 * Returns the time the newest point of the given archive starts at when
+	 * the database is created at the given time.
+	 * 
+	 * @param index
+	 * 		The index of the archive in the database.
+	 * @param time
+	 * 		The creation time of the database.
+	 * @return
+	 * 		The start time of the newest point in milliseconds.
+	 */
+	private long getArchiveStart(int index, long time)
+	{
+		long interval = archiveInterval[index];
+		if (!aligned || interval <= 0) {
+			return time;
+		}
+		return time - (time % interval);
+	}
+	
 	/**
 	 * Returns the number of archives in this format.
 	 * 
@@ -359,7 +1084,81 @@ public final class StatFormat
 	 */
 	public int getArchiveSize(int index) 
 	{
-		return archivePoints[index] * POINT_SIZE + ARCHIVE_HEADER_SIZE;
+		return archivePoints[index] * getPointSize(index) + ARCHIVE_HEADER_SIZE;
+	}
+	
+	/**
+	 * Returns the size of a single point in an archive.
+	 * 
+	 * @param index
+	 * 		The index of the archive in the database.
+	 * @return
+	 * 		The size of a point in the archive in bytes.
+	 */
+	public int getPointSize(int index)
+	{
+		int size = 0;
+		for (int k = 0; k < getFieldCount(); k++) {
+			size += getFieldSize(index, k);
+		}
+		return size;
+	}
+	
+	/**
+	 * Returns the number of fields of a point, the built in fields followed
+	 * by a field for each aggregator.
+	 */
+	protected int getFieldCount()
+	{
+		return FIELD_SIZE.length + aggregators.length;
+	}
+	
+	/**
+	 * Returns the field of the aggregator at the given index.
+	 */
+	protected int getAggregatorField(int index)
+	{
+		return FIELD_SIZE.length + index;
+	}
+	
+	/**
+	 * Returns the size in bytes of the given field of a point in an archive.
+	 * A field which the points do not keep has a size of zero.
+	 */
+	protected int getFieldSize(int archive, int field)
+	{
+		if (field >= FIELD_SIZE.length) {
+			return aggregators[field - FIELD_SIZE.length].getSize();
+		}
+		if ((field == FIELD_SUM && !hasFunction(archive, StatFunction.Sum)) || 
+			(field == FIELD_MIN && !hasFunction(archive, StatFunction.Min)) || 
+			(field == FIELD_MAX && !hasFunction(archive, StatFunction.Max)) || 
+			(field == FIELD_SQUARES && !hasFunction(archive, StatFunction.Squares))) {
+			return 0;
+		}
+		if (field == FIELD_HISTOGRAM) {
+			return histogramBuckets * StatHistogram.BUCKET_SIZE;
+		}
+		if (field == FIELD_CARDINALITY) {
+			return (hasCardinality() ? 1 << cardinalityPrecision : 0);
+		}
+		if (isCompact(archive)) {
+			return COMPACT_FIELD_SIZE[field];
+		}
+		if ((field == FIELD_MIN || field == FIELD_MAX) && valueType != StatValue.Float) {
+			return 8;
+		}
+		return FIELD_SIZE[field];
+	}
+	
+	/**
+	 * Returns whether the given field of a point in an archive is stored as a
+	 * long instead of a floating point value.
+	 */
+	protected boolean isLongField(int archive, int field)
+	{
+		return (valueType == StatValue.Long && !isCompact(archive) &&
+				(field == FIELD_SUM || field == FIELD_MIN || field == FIELD_MAX));
 	}
 	
 	/**
@@ -398,6 +1197,14 @@ public final class StatFormat
 		return new LongVar(store, 8);
 	}
 	
+	/**
+	 * Returns the var for the layout signature of the database.
+	 */
+	private LongVar getSignature(Store store) 
+	{
+		return new LongVar(store, 16);
+	}
+	
 	/**
 	 * Returns the offset for the header of the archive.
 	 */
@@ -471,75 +1278,97 @@ public final class StatFormat
 	}
 
 	/**
-	 * Returns the offset for a point in the archive.
+	 * Returns the offset for the first value of the given field in the 
+	 * archive. The value of the field for the point at an absolute index is
+	 * at getFieldOffset(archive, field) + getFieldStride(archive, field) * index.
 	 */
-	private int getPointOffset(int archive, int index) 
+	protected int getFieldOffset(int archive, int field) 
 	{
-		return archiveOffset[archive] + ARCHIVE_HEADER_SIZE + (POINT_SIZE * index);
+		return archiveOffset[archive] + ARCHIVE_HEADER_SIZE + fieldOffset[archive][field];
 	}
-
+	
 	/**
-	 * Returns the offset for the total statistics of the point.
+	 * Returns the number of bytes between the value of the given field for two
+	 * consecutive points in the archive.
 	 */
-	private int getPointTotalOffset(int archive, int index) 
+	protected int getFieldStride(int archive, int field) 
 	{
-		return getPointOffset(archive, index);
+		return fieldStride[archive][field];
 	}
 	
 	/**
-	 * Returns the var for the total statistics of the point.
+	 * Returns the offset of the value of the given field for a point in the 
+	 * archive.
 	 */
-	private LongVar getPointTotal(int archive, int index, Store store) 
+	private int getPointFieldOffset(int archive, int index, int field) 
 	{
-		return new LongVar(store, getPointTotalOffset(archive, index));
+		return getFieldOffset(archive, field) + fieldStride[archive][field] * index;
 	}
 
 	/**
-	 * Returns the offset for the sum of the statistics of the point.
+	 * Returns the offset for the total statistics of the point.
 	 */
-	private int getPointSumOffset(int archive, int index) 
+	protected int getPointTotalOffset(int archive, int index) 
 	{
-		return getPointOffset(archive, index) + 8;
+		return getPointFieldOffset(archive, index, FIELD_TOTAL);
 	}
 	
 	/**
-	 * Returns the var for the sum of the statistics of the point.
+	 * Returns the offset for the sum of the statistics of the point.
 	 */
-	private DoubleVar getPointSum(int archive, int index, Store store) 
+	protected int getPointSumOffset(int archive, int index) 
 	{
-		return new DoubleVar(store, getPointSumOffset(archive, index));
+		return getPointFieldOffset(archive, index, FIELD_SUM);
 	}
-
+	
 	/**
 	 * Returns the offset for the smallest statistic of the point.
 	 */
-	private int getPointMinOffset(int archive, int index) 
+	protected int getPointMinOffset(int archive, int index) 
 	{
-		return getPointOffset(archive, index) + 16;
+		return getPointFieldOffset(archive, index, FIELD_MIN);
 	}
 	
 	/**
-	 * Returns the var for the smallest statistic of the point.
+	 * Returns the offset for the largest statistic of the point.
 	 */
-	private FloatVar getPointMin(int archive, int index, Store store) 
+	protected int getPointMaxOffset(int archive, int index) 
 	{
-		return new FloatVar(store, getPointMinOffset(archive, index));
+		return getPointFieldOffset(archive, index, FIELD_MAX);
 	}
-
+	
 	/**
-	 * Returns the offset for the largest statistic of the point.
+	 * Returns the offset for the sum of the squares of the statistics of the
+	 * point.
+	 */
+	protected int getPointSquaresOffset(int archive, int index) 
+	{
+		return getPointFieldOffset(archive, index, FIELD_SQUARES);
+	}
+	
+	/**
+	 * Returns the offset for the first bucket of the histogram of the point.
+	 */
+	protected int getPointHistogramOffset(int archive, int index) 
+	{
+		return getPointFieldOffset(archive, index, FIELD_HISTOGRAM);
+	}
+	
+	/**
+	 * Returns the offset for the first register of the distinct item estimate
+	 * of the point.
 	 */
-	private int getPointMaxOffset(int archive, int index) 
+	protected int getPointCardinalityOffset(int archive, int index) 
 	{
-		return getPointOffset(archive, index) + 20;
+		return getPointFieldOffset(archive, index, FIELD_CARDINALITY);
 	}
 	
 	/**
-	 * Returns the var for the largest statistic of the point.
+	 * Returns the offset for the value of the given aggregator of the point.
 	 */
-	private FloatVar getPointMax(int archive, int index, Store store) 
+	protected int getPointAggregateOffset(int archive, int index, int aggregator) 
 	{
-		return new FloatVar(store, getPointMaxOffset(archive, index));
+		return getPointFieldOffset(archive, index, getAggregatorField(aggregator));
 	}
 	
 	
@@ -0,0 +1,74 @@
+/* 
+ * NOTICE OF LICENSE
+ * 
+ * This source file is subject to the Open Software License (OSL 3.0) that is 
+ * bundled with this package in the file LICENSE.txt. It is also available 
+ * through the world-wide-web at http://opensource.org/licenses/osl-3.0.php
+ * If you did not receive a copy of the license and are unable to obtain it 
+ * through the world-wide-web, please send an email to pdiffenderfer@gmail.com 
+ * so we can send you a copy immediately. If you use any of this software please
+ * notify me via my website or email, your feedback is much appreciated. 
+ * 
+ * @copyright   Copyright (c) 2011 Magnos Software (http://www.magnos.org)
+ * @license     http://opensource.org/licenses/osl-3.0.php
+ * 				Open Software License (OSL 3.0)
+ */
+
+package org.magnos.stat;
+
+/**
+ * A consolidation function an archive can keep for each of its points. Every
+ * point keeps its total, an archive which does not keep a function does not
+ * store its field and the value is NaN when read. Coarse archives can keep
+ * fewer functions so their points are smaller.
+ * 
+ * <pre>
+ * Sum:     the sum and average of the statistics
+ * Min:     the smallest statistic
+ * Max:     the largest statistic
+ * Squares: the sum of squares and standard deviation (if kept by the format)
+ * </pre>
+ * 
+ * @author Philip Diffenderfer
+ * @see StatFormat#set(int, long, int, StatFunction...)
+ */
+public enum StatFunction 
+{
+	
+	/**
+	 * The sum of the statistics of a point.
+	 */
+	Sum,
+	
+	/**
+	 * The smallest statistic of a point.
+	 */
+	Min,
+	
+	/**
+	 * The largest statistic of a point.
+	 */
+	Max,
+	
+	/**
+	 * The sum of the squares of the statistics of a point.
+	 */
+	Squares;
+	
+	/**
+	 * Returns the bit of this function in a set of functions.
+	 */
+	protected int getBit()
+	{
+		return 1 << ordinal();
+	}
+	
+	/**
+	 * Returns the set of all functions.
+	 */
+	protected static int getAll()
+	{
+		return (1 << values().length) - 1;
+	}
+	
+}
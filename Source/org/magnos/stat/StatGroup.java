@@ -18,9 +18,17 @@ package org.magnos.stat;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.List;
+import java.util.Map.Entry;
 import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 
 import org.magnos.data.Store;
 import org.magnos.data.StoreFactory;
@@ -65,6 +73,10 @@ public class StatGroup
 	// The map of databases by their names (absolute paths).
 	private final HashMap<String, StatDatabase> databaseMap;
 	
+	// The databases sorted by their names (filename without a path), 
+	// databases added from other directories can share a name.
+	private final TreeMap<String, Set<StatDatabase>> nameIndex;
+	
 	// The map of child groups by their names (directory name).
 	private final HashMap<String, StatGroup> childMap;
 	
@@ -126,6 +138,7 @@ public class StatGroup
 		directory = getFile(root, name);
 		directory.mkdirs();
 		databaseMap = new HashMap<String, StatDatabase>();
+		nameIndex = new TreeMap<String, Set<StatDatabase>>();
 		childMap = new HashMap<String, StatGroup>();
 	}
 	
@@ -348,7 +361,9 @@ public class StatGroup
 	public StatDatabase add(StatDatabase database) 
 	{
 		synchronized (databaseMap) {
-			return databaseMap.put(database.getName(), database);
+			StatDatabase previous = unindex(databaseMap.put(database.getName(), database));
+			index(database);
+			return previous;
 		}
 	}
 	
@@ -404,6 +419,7 @@ public class StatGroup
 					
 					// No formatting problems, add to map.
 					databaseMap.put(database.getName(), database);
+					index(database);
 				} 
 				catch (StatFormatException e) {
 					e.printStackTrace();
@@ -427,7 +443,7 @@ public class StatGroup
 	public StatDatabase remove(StatDatabase database) 
 	{
 		synchronized (databaseMap) {
-			return databaseMap.remove(database.getName());
+			return unindex(databaseMap.remove(database.getName()));
 		}
 	}
 	
@@ -449,8 +465,150 @@ public class StatGroup
 			if (db == null) {
 				db = databaseMap.remove(getPath(name));
 			}
-			return db;
+			return unindex(db);
+		}
+	}
+	
+	/**
+	 * Adds the given database to the name index.
+	 */
+	private void index(StatDatabase database)
+	{
+		String name = getIndexName(database);
+		Set<StatDatabase> named = nameIndex.get(name);
+		if (named == null) {
+			named = new HashSet<StatDatabase>();
+			nameIndex.put(name, named);
+		}
+		named.add(database);
+	}
+	
+	/**
+	 * Removes the given database from the name index.
+	 */
+	private StatDatabase unindex(StatDatabase database)
+	{
+		if (database != null) {
+			String name = getIndexName(database);
+			Set<StatDatabase> named = nameIndex.get(name);
+			if (named != null && named.remove(database) && named.isEmpty()) {
+				nameIndex.remove(name);
+			}
+		}
+		return database;
+	}
+	
+	/**
+	 * Returns the name a database is indexed by, its filename without a path.
+	 */
+	private String getIndexName(StatDatabase database)
+	{
+		return new File(database.getName()).getName();
+	}
+	
+	/**
+	 * Returns the databases in this group with names that match the given
+	 * pattern. This method will use the default target to determine precisely
+	 * what groups this invokation will be applied to.
+	 * 
+	 * @param pattern
+	 * 		The pattern the names of the databases must match.
+	 * @return
+	 * 		The set of matching databases.
+	 * @see #find(String, StatTarget)
+	 */
+	public Set<StatDatabase> find(String pattern)
+	{
+		return find(pattern, targetDefault);
+	}
+	
+	/**
+	 * Returns the databases in this group with names that match the given
+	 * pattern. The names matched are the filenames of the databases without
+	 * a path. A '*' in the pattern matches any number of characters and a 
+	 * '?' matches exactly one character, for example "api.*.latency" or 
+	 * "api.*" for all databases with the prefix "api.". The databases are
+	 * kept sorted by name, so only the databases with the characters before 
+	 * the first wildcard as a prefix are checked. This method will be 
+	 * applied based on the given target.
+	 * 
+	 * @param pattern
+	 * 		The pattern the names of the databases must match.
+	 * @param target
+	 * 		The target of this method.
+	 * @return
+	 * 		The set of matching databases.
+	 */
+	public Set<StatDatabase> find(String pattern, StatTarget target)
+	{
+		int wildcard = 0;
+		while (wildcard < pattern.length() && !isWildcard(pattern.charAt(wildcard))) {
+			wildcard++;
 		}
+		String prefix = pattern.substring(0, wildcard);
+		boolean prefixOnly = (wildcard == pattern.length() - 1 && pattern.charAt(wildcard) == '*');
+		
+		synchronized (databaseMap) {
+			Set<StatDatabase> databases = new HashSet<StatDatabase>();
+			for (Entry<String, Set<StatDatabase>> e : nameIndex.tailMap(prefix).entrySet()) {
+				String name = e.getKey();
+				if (!name.startsWith(prefix)) {
+					break;
+				}
+				if (prefixOnly || matches(pattern, name, wildcard)) {
+					databases.addAll(e.getValue());
+				}
+			}
+			if (target.hasChildren()) {
+				synchronized (childMap) {
+					for (StatGroup child : childMap.values()) {
+						databases.addAll( child.find(pattern, target.getChild()) );
+					}
+				}
+			}
+			return databases;
+		}
+	}
+	
+	/**
+	 * Returns whether the given character is a wildcard in a pattern.
+	 */
+	private static boolean isWildcard(char c)
+	{
+		return (c == '*' || c == '?');
+	}
+	
+	/**
+	 * Returns whether the given name matches the pattern, the characters 
+	 * before the given index already match.
+	 */
+	private static boolean matches(String pattern, String name, int start)
+	{
+		int p = start, n = start;
+		int star = -1, starName = 0;
+		
+		while (n < name.length()) {
+			if (p < pattern.length() && pattern.charAt(p) == '*') {
+				// Match nothing with the star first, then more if that fails.
+				star = p++;
+				starName = n;
+			}
+			else if (p < pattern.length() && (pattern.charAt(p) == '?' || pattern.charAt(p) == name.charAt(n))) {
+				p++;
+				n++;
+			}
+			else if (star != -1) {
+				p = star + 1;
+				n = ++starName;
+			}
+			else {
+				return false;
+			}
+		}
+		while (p < pattern.length() && pattern.charAt(p) == '*') {
+			p++;
+		}
+		return (p == pattern.length());
 	}
 	
 	/**
@@ -480,6 +638,44 @@ public class StatGroup
 		}
 	}
 	
+	/**
+	 * Advances the archives of all enabled databases in this group to the 
+	 * given time. This is invoked by the StatService for each group scheduled
+	 * with it, so all databases in a group are advanced in a single batch.
+	 * 
+	 * @param time
+	 * 		The current time in milliseconds since the Unix epoch.
+	 * @param target
+	 * 		The target of this method.
+	 * @see StatService#schedule(StatGroup)
+	 */
+	protected void tick(long time, StatTarget target)
+	{
+		// Copy the databases and children so the maps aren't locked while 
+		// the archives are cleared.
+		List<StatDatabase> databases = new ArrayList<StatDatabase>();
+		List<StatGroup> children = new ArrayList<StatGroup>();
+		synchronized (databaseMap) {
+			for (StatDatabase db : databaseMap.values()) {
+				if (db.isEnabled()) {
+					databases.add(db);
+				}
+			}
+		}
+		if (target.hasChildren()) {
+			synchronized (childMap) {
+				children.addAll(childMap.values());
+			}
+		}
+		
+		for (StatDatabase db : databases) {
+			db.tick(time);
+		}
+		for (StatGroup child : children) {
+			child.tick(time, target.getChild());
+		}
+	}
+	
 	/**
 	 * Returns the children of this group. This method will use the default 
 	 * target to determine precisely what groups this invokation will be applied
@@ -739,6 +935,208 @@ public class StatGroup
 		}
 	}
 	
+	/**
+	 * Returns snapshots of the databases in this group. This method will use
+	 * the default target to determine precisely what groups this invokation 
+	 * will be applied to.
+	 * 
+	 * @return
+	 * 		The set of snapshots of the databases in the group.
+	 * @see StatDatabase#snapshot()
+	 */
+	public Set<StatDatabase> snapshot() 
+	{
+		return snapshot(targetDefault);
+	}
+	
+	/**
+	 * Returns snapshots of the databases in this group. This method will be 
+	 * applied based on the given target.
+	 * 
+	 * @param target
+	 * 		The target of this method.
+	 * @return
+	 * 		The set of snapshots of the databases in the group.
+	 * @see StatDatabase#snapshot()
+	 */
+	public Set<StatDatabase> snapshot(StatTarget target) 
+	{
+		Set<StatDatabase> snapshots = new HashSet<StatDatabase>();
+		for (StatDatabase db : getDatabases(target)) {
+			snapshots.add(db.snapshot());
+		}
+		return snapshots;
+	}
+	
+	/**
+	 * Returns the points of all databases in this group added together into
+	 * points of the given interval, in the calling thread. This method will 
+	 * use the default target to determine precisely what groups this 
+	 * invokation will be applied to.
+	 * 
+	 * @param start
+	 * 		The start time of the first point in milliseconds since the Unix 
+	 * 		epoch.
+	 * @param end
+	 * 		The end of the range of the points.
+	 * @param interval
+	 * 		The interval of each point in milliseconds.
+	 * @return
+	 * 		The points of all databases added together.
+	 * @see #aggregate(long, long, long, StatTarget, ExecutorService)
+	 */
+	public StatSeries aggregate(long start, long end, long interval)
+	{
+		return aggregate(start, end, interval, targetDefault, null);
+	}
+	
+	/**
+	 * Returns the points of all databases in this group added together into
+	 * points of the given interval. The total and sum of each point is the
+	 * total and sum of every database over the interval, and the minimum 
+	 * and maximum are of every database. Each database is read from the 
+	 * coarsest archive with an interval no longer than the given interval 
+	 * (or its finest archive) and each of its points is added to the point
+	 * its start time is in. The databases are split into a task for each 
+	 * thread of the given executor and the results of the tasks are merged.
+	 * 
+	 * @param start
+	 * 		The start time of the first point in milliseconds since the Unix 
+	 * 		epoch.
+	 * @param end
+	 * 		The end of the range of the points.
+	 * @param interval
+	 * 		The interval of each point in milliseconds.
+	 * @param target
+	 * 		The target of this method.
+	 * @param executor
+	 * 		The executor to run the tasks with, or null to read all databases
+	 * 		in the calling thread.
+	 * @return
+	 * 		The points of all databases added together.
+	 * @throws IllegalArgumentException
+	 * 		The interval is not positive or the end is before the start.
+	 */
+	public StatSeries aggregate(long start, long end, long interval, StatTarget target, ExecutorService executor)
+	{
+		return aggregate(start, end, interval, getDatabases(target).toArray(new StatDatabase[0]), null, executor);
+	}
+	
+	/**
+	 * Returns the points of the given databases added together into points
+	 * of the given interval, and sets the end of the range read from each 
+	 * archive of each database.
+	 * 
+	 * @param start
+	 * 		The start time of the first point in milliseconds since the Unix 
+	 * 		epoch.
+	 * @param end
+	 * 		The end of the range of the points.
+	 * @param interval
+	 * 		The interval of each point in milliseconds.
+	 * @param databases
+	 * 		The databases to add together.
+	 * @param ends
+	 * 		The arrays to set the end of the range read from each archive in,
+	 * 		one for each database, or null.
+	 * @param executor
+	 * 		The executor to run the tasks with, or null to read all databases
+	 * 		in the calling thread.
+	 * @return
+	 * 		The points of all databases added together.
+	 * @throws IllegalArgumentException
+	 * 		The interval is not positive or the end is before the start.
+	 * @see StatDatabase#fetch(long, long, int, long[])
+	 */
+	protected StatSeries aggregate(long start, long end, long interval, StatDatabase[] databases, long[][] ends, ExecutorService executor)
+	{
+		if (interval <= 0 || end < start) {
+			throw new IllegalArgumentException("Invalid aggregate range or interval");
+		}
+		int size = (int)((end - start + interval - 1) / interval);
+		StatSeries result = new StatSeries(start, interval, size);
+		
+		if (executor == null) {
+			new AggregateTask(databases, ends, 0, 1, start, end, interval, size).addTo(result);
+			return result;
+		}
+		
+		int tasks = Math.min(databases.length, Runtime.getRuntime().availableProcessors() * 4);
+		List<Future<StatSeries>> futures = new ArrayList<Future<StatSeries>>(tasks);
+		for (int i = 0; i < tasks; i++) {
+			futures.add(executor.submit(new AggregateTask(databases, ends, i, tasks, start, end, interval, size)));
+		}
+		
+		try {
+			for (Future<StatSeries> future : futures) {
+				result.merge(future.get());
+			}
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("Interrupted while aggregating", e);
+		}
+		catch (ExecutionException e) {
+			if (e.getCause() instanceof RuntimeException) {
+				throw (RuntimeException)e.getCause();
+			}
+			throw new IllegalStateException("Failed to aggregate", e.getCause());
+		}
+		
+		return result;
+	}
+	
+	/**
+	 * A task which adds the points of every n-th database together.
+	 * 
+	 * @author Philip Diffenderfer
+	 */
+	private static class AggregateTask implements Callable<StatSeries>
+	{
+		// The databases, the first database of this task, and the number of
+		// databases between the databases of this task.
+		private final StatDatabase[] databases;
+		private final int first;
+		private final int step;
+		
+		// The ends of the ranges read from the archives of each database,
+		// or null if they're not needed.
+		private final long[][] ends;
+		
+		// The range and interval of the points.
+		private final long start;
+		private final long end;
+		private final long interval;
+		private final int size;
+		
+		AggregateTask(StatDatabase[] databases, long[][] ends, int first, int step, long start, long end, long interval, int size) 
+		{
+			this.databases = databases;
+			this.ends = ends;
+			this.first = first;
+			this.step = step;
+			this.start = start;
+			this.end = end;
+			this.interval = interval;
+			this.size = size;
+		}
+		
+		@Override
+		public StatSeries call() 
+		{
+			StatSeries series = new StatSeries(start, interval, size);
+			addTo(series);
+			return series;
+		}
+		
+		void addTo(StatSeries series)
+		{
+			for (int i = first; i < databases.length; i += step) {
+				databases[i].aggregate(start, end, interval, series, ends == null ? null : ends[i]);
+			}
+		}
+	}
+	
 	/**
 	 * Closes the databases in the group. This method will use the default 
 	 * target to determine precisely what groups this invokation will be applied 
@@ -807,6 +1205,7 @@ public class StatGroup
 				}
 			}
 			databaseMap.clear();
+			nameIndex.clear();
 			return databases;
 		}
 	}
@@ -851,6 +1250,7 @@ public class StatGroup
 				}
 			}
 			databaseMap.clear();
+			nameIndex.clear();
 			if (!directory.delete()) {
 				directory.deleteOnExit();
 			}
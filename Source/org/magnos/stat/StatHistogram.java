@@ -0,0 +1,330 @@
+/* 
+ * NOTICE OF LICENSE
+ * 
+ * This source file is subject to the Open Software License (OSL 3.0) that is 
+ * bundled with this package in the file LICENSE.txt. It is also available 
+ * through the world-wide-web at http://opensource.org/licenses/osl-3.0.php
+ * If you did not receive a copy of the license and are unable to obtain it 
+ * through the world-wide-web, please send an email to pdiffenderfer@gmail.com 
+ * so we can send you a copy immediately. If you use any of this software please
+ * notify me via my website or email, your feedback is much appreciated. 
+ * 
+ * @copyright   Copyright (c) 2011 Magnos Software (http://www.magnos.org)
+ * @license     http://opensource.org/licenses/osl-3.0.php
+ * 				Open Software License (OSL 3.0)
+ */
+
+package org.magnos.stat;
+
+import java.nio.ByteBuffer;
+
+import org.magnos.data.Bits;
+import org.magnos.data.Store;
+
+/**
+ * A fixed size histogram of the statistics added to a point which gives an
+ * estimate of any quantile of the statistics (the median or 99th percentile
+ * for example).
+ * 
+ * Each octave of values (a range from some power of two to the next) is split
+ * into SUB_BUCKETS buckets of equal width, so the width of a bucket is at most
+ * 1/SUB_BUCKETS of the values in it. The bucket of a value is found directly
+ * from the exponent and highest bits of the mantissa of the value as a float.
+ * The first bucket holds the lowest value of the histogram, any values less
+ * than it are counted in the first bucket and any values past the last bucket
+ * are counted in the last bucket.
+ * 
+ * <pre>
+ * lowest=1, buckets=16
+ * | 1 | 1.125 | 1.25 | ... | 1.875 | 2 | 2.25 | 2.5 | ... | 3.75 |
+ * </pre>
+ * 
+ * Two histograms with the same lowest value and number of buckets can be
+ * merged by adding their counts. Each count is a 32-bit integer which stops
+ * at Integer.MAX_VALUE instead of overflowing, so a point should not count
+ * more than 2^31 statistics in a single bucket.
+ * 
+ * @author Philip Diffenderfer
+ * @see StatFormat#setHistogram(float, int)
+ */
+public class StatHistogram
+{
+	
+	/**
+	 * The number of bits of the mantissa used to choose a bucket in an octave.
+	 */
+	public static final int SUB_BUCKET_BITS = 3;
+	
+	/**
+	 * The number of buckets in each octave.
+	 */
+	public static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+	
+	/**
+	 * The size of each bucket in bytes.
+	 */
+	public static final int BUCKET_SIZE = 4;
+	
+	// The shift of the bits of a float which gives its bucket.
+	private static final int SHIFT = 23 - SUB_BUCKET_BITS;
+	
+	
+	// The lowest value of the histogram.
+	private final float lowest;
+	
+	// The shifted bits of the lowest value, the first bucket.
+	private final int base;
+	
+	// The number of statistics in each bucket.
+	private final int[] counts;
+	
+	// The buffer the counts are read from and written to.
+	private final ByteBuffer buffer;
+	
+	// The bytes of a single count incremented in place in a store.
+	private final byte[] count = new byte[BUCKET_SIZE];
+	
+	
+	/**
+	 * Instantiates a new StatHistogram.
+	 * 
+	 * @param lowest
+	 * 		The lowest value of the histogram, must be positive.
+	 * @param buckets
+	 * 		The number of buckets in the histogram.
+	 */
+	public StatHistogram(float lowest, int buckets)
+	{
+		this.lowest = lowest;
+		this.base = Float.floatToIntBits(lowest) >> SHIFT;
+		this.counts = new int[buckets];
+		this.buffer = ByteBuffer.allocate(buckets * BUCKET_SIZE);
+	}
+	
+	/**
+	 * Adds a statistic to the histogram.
+	 * 
+	 * @param value
+	 * 		The statistic to add.
+	 */
+	public void add(float value)
+	{
+		int bucket = getBucket(value);
+		if (counts[bucket] != Integer.MAX_VALUE) {
+			counts[bucket]++;
+		}
+	}
+	
+	/**
+	 * Adds a statistic to the histogram at the given location in a store 
+	 * without reading the other buckets, the count of the bucket of the 
+	 * statistic is incremented in the store and the counts of this histogram 
+	 * are not changed.
+	 * 
+	 * @param value
+	 * 		The statistic to add.
+	 * @param location
+	 * 		The location of the first bucket in the store.
+	 * @param store
+	 * 		The store the histogram is in.
+	 */
+	protected void add(float value, int location, Store store)
+	{
+		int offset = location + getBucket(value) * BUCKET_SIZE;
+		store.get(offset, count);
+		int current = Bits.getInt(count);
+		if (current != Integer.MAX_VALUE) {
+			Bits.getIntBytes(current + 1, count);
+			store.put(offset, count);
+		}
+	}
+	
+	/**
+	 * Adds the counts of the given histogram to this histogram.
+	 * 
+	 * @param histogram
+	 * 		The histogram to merge, must have the same lowest value and number
+	 * 		of buckets as this histogram.
+	 * @throws IllegalArgumentException
+	 * 		The histogram has a different lowest value or number of buckets.
+	 */
+	public void merge(StatHistogram histogram)
+	{
+		if (!matches(histogram.lowest, histogram.counts.length)) {
+			throw new IllegalArgumentException("Histograms have different buckets");
+		}
+		for (int i = 0; i < counts.length; i++) {
+			counts[i] = (int)Math.min((long)counts[i] + histogram.counts[i], Integer.MAX_VALUE);
+		}
+	}
+	
+	/**
+	 * Removes all statistics from the histogram.
+	 */
+	public void clear()
+	{
+		for (int i = 0; i < counts.length; i++) {
+			counts[i] = 0;
+		}
+	}
+	
+	/**
+	 * Returns whether this histogram has the given lowest value and number of
+	 * buckets.
+	 */
+	protected boolean matches(float lowest, int buckets)
+	{
+		return (this.lowest == lowest && counts.length == buckets);
+	}
+	
+	/**
+	 * Returns the bucket the given value is counted in.
+	 * 
+	 * @param value
+	 * 		The value to find the bucket of.
+	 * @return
+	 * 		The index of the bucket, between 0 and getBucketCount() - 1.
+	 */
+	public int getBucket(float value)
+	{
+		// Negative values, NaN, and values below the lowest are in the first.
+		if (!(value > lowest)) {
+			return 0;
+		}
+		int bucket = (Float.floatToIntBits(value) >> SHIFT) - base;
+	
+		return Math.min(bucket, counts.length - 1);
+	}
+	
+	/**
+	 * Returns the smallest value of the given bucket.
+	 * 
+	 * @param bucket
+	 * 		The index of the bucket.
+	 */
+	public float getLowerBound(int bucket)
+	{
+		return Float.intBitsToFloat((base + bucket) << SHIFT);
+	}
+	
+	/**
+	 * Returns the smallest value of the bucket after the given bucket.
+	 * 
+	 * @param bucket
+	 * 		The index of the bucket.
+	 */
+	public float getUpperBound(int bucket)
+	{
+		return getLowerBound(bucket + 1);
+	}
+	
+	/**
+	 * Returns the estimated value which the given fraction of the statistics
+	 * in this histogram are less than or equal to. The value is interpolated
+	 * linearly in the bucket the quantile falls in.
+	 * 
+	 * @param quantile
+	 * 		The quantile between 0.0 and 1.0 (0.5 is the median).
+	 * @return
+	 * 		The estimated value of the quantile, or NaN if the histogram is
+	 * 		empty.
+	 */
+	public double getQuantile(double quantile)
+	{
+		long total = getTotal();
+		if (total == 0) {
+			return Double.NaN;
+		}
+		double rank = quantile * total;
+		long below = 0;
+		for (int i = 0; i < counts.length; i++) {
+			if (counts[i] > 0 && below + counts[i] >= rank) {
+				double lower = getLowerBound(i);
+				double upper = getUpperBound(i);
+				double within = Math.max(0.0, rank - below) / counts[i];
+				return lower + (upper - lower) * within;
+			}
+			below += counts[i];
+		}
+		return getUpperBound(counts.length - 1);
+	}
+	
+	/**
+	 * Returns the number of statistics counted in the given bucket.
+	 * 
+	 * @param bucket
+	 * 		The index of the bucket.
+	 */
+	public int getCount(int bucket)
+	{
+		return counts[bucket];
+	}
+	
+	/**
+	 * Returns the number of statistics counted in all buckets.
+	 */
+	public long getTotal()
+	{
+		long total = 0;
+		for (int i = 0; i < counts.length; i++) {
+			total += counts[i];
+		}
+		return total;
+	}
+	
+	/**
+	 * Returns the number of buckets in this histogram.
+	 */
+	public int getBucketCount()
+	{
+		return counts.length;
+	}
+	
+	/**
+	 * Returns the lowest value of this histogram.
+	 */
+	public float getLowest()
+	{
+		return lowest;
+	}
+	
+	/**
+	 * Returns the size of this histogram in bytes.
+	 */
+	public int getSize()
+	{
+		return counts.length * BUCKET_SIZE;
+	}
+	
+	/**
+	 * Reads the counts of this histogram from the given location in a store.
+	 * 
+	 * @param location
+	 * 		The location of the first bucket in the store.
+	 * @param store
+	 * 		The store to read from.
+	 */
+	protected void read(int location, Store store)
+	{
+		buffer.clear();
+		store.get(location, buffer);
+		buffer.clear();
+		buffer.asIntBuffer().get(counts);
+	}
+	
+	/**
+	 * Writes the counts of this histogram to the given location in a store.
+	 * 
+	 * @param location
+	 * 		The location of the first bucket in the store.
+	 * @param store
+	 * 		The store to write to.
+	 */
+	protected void write(int location, Store store)
+	{
+		buffer.clear();
+		buffer.asIntBuffer().put(counts);
+		store.put(location, buffer);
+	}
+	
+}
@@ -0,0 +1,100 @@
+/* 
+ * NOTICE OF LICENSE
+ * 
+ * This source file is subject to the Open Software License (OSL 3.0) that is 
+ * bundled with this package in the file LICENSE.txt. It is also available 
+ * through the world-wide-web at http://opensource.org/licenses/osl-3.0.php
+ * If you did not receive a copy of the license and are unable to obtain it 
+ * through the world-wide-web, please send an email to pdiffenderfer@gmail.com 
+ * so we can send you a copy immediately. If you use any of this software please
+ * notify me via my website or email, your feedback is much appreciated. 
+ * 
+ * @copyright   Copyright (c) 2011 Magnos Software (http://www.magnos.org)
+ * @license     http://opensource.org/licenses/osl-3.0.php
+ * 				Open Software License (OSL 3.0)
+ */
+
+package org.magnos.stat;
+
+import java.nio.ByteBuffer;
+
+/**
+ * An aggregator which keeps the last statistic added to a point. When points
+ * are merged the statistic of the point merged from is kept, so points should
+ * be merged from oldest to newest.
+ * 
+ * @author Philip Diffenderfer
+ *
+ */
+public class StatLast implements StatAggregator
+{
+	
+	/**
+	 * The name of the aggregator.
+	 */
+	public static final String NAME = "last";
+	
+	/**
+	 * The size of the aggregate in bytes.
+	 */
+	public static final int SIZE = 4;
+	
+	
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public String getName()
+	{
+		return NAME;
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public int getSize()
+	{
+		return SIZE;
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public void clear(ByteBuffer data)
+	{
+		data.putFloat(0, Float.NaN);
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public void add(ByteBuffer data, float value)
+	{
+		data.putFloat(0, value);
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public void merge(ByteBuffer data, ByteBuffer other)
+	{
+		float value = other.getFloat(0);
+		if (!Float.isNaN(value)) {
+			data.putFloat(0, value);
+		}
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public double getValue(ByteBuffer data)
+	{
+		return data.getFloat(0);
+	}
+	
+}
@@ -0,0 +1,46 @@
+/* 
+ * NOTICE OF LICENSE
+ * 
+ * This source file is subject to the Open Software License (OSL 3.0) that is 
+ * bundled with this package in the file LICENSE.txt. It is also available 
+ * through the world-wide-web at http://opensource.org/licenses/osl-3.0.php
+ * If you did not receive a copy of the license and are unable to obtain it 
+ * through the world-wide-web, please send an email to pdiffenderfer@gmail.com 
+ * so we can send you a copy immediately. If you use any of this software please
+ * notify me via my website or email, your feedback is much appreciated. 
+ * 
+ * @copyright   Copyright (c) 2011 Magnos Software (http://www.magnos.org)
+ * @license     http://opensource.org/licenses/osl-3.0.php
+ * 				Open Software License (OSL 3.0)
+ */
+
+package org.magnos.stat;
+
+/**
+ * Specifies how the points of an archive are laid out in a database.
+ * 
+ * <pre>
+ * Row:    | total sum min max | total sum min max | total sum min max |
+ * Column: | total total total | sum sum sum | min min min | max max max |
+ * </pre>
+ * 
+ * @author Philip Diffenderfer
+ * @see StatFormat#setLayout(StatLayout)
+ */
+public enum StatLayout 
+{
+	
+	/**
+	 * Each point is stored as a single record of all of its values. This is
+	 * the original layout and is best when whole points are read.
+	 */
+	Row,
+	
+	/**
+	 * Each value of the points is stored in its own contiguous array. This is
+	 * best when only some of the values of many points are read (averages or
+	 * maximums for example).
+	 */
+	Column;
+	
+}
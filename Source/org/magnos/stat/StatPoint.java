@@ -16,8 +16,12 @@
 
 package org.magnos.stat;
 
+import java.nio.ByteBuffer;
+
+import org.magnos.data.Bits;
 import org.magnos.data.Data;
 import org.magnos.data.DataSet;
+import org.magnos.data.Store;
 import org.magnos.data.var.DoubleVar;
 import org.magnos.data.var.FloatVar;
 import org.magnos.data.var.LongVar;
@@ -31,7 +35,17 @@ import org.magnos.data.var.LongVar;
  * <li>The average of the statistics (sum / total)</li>
  * <li>The smallest statistic added</li>
  * <li>The largest statistic added</li>
+ * <li>The sum of the squares of the statistics, if the format keeps it</li>
+ * <li>A histogram of the statistics, if the format keeps it</li>
+ * <li>An estimate of the distinct items added, if the format keeps it</li>
+ * <li>The value of each aggregator of the format</li>
  * </ol>
+ * The sum of squares gives the variance and standard deviation of the point,
+ * and the histogram gives estimates of the quantiles of the point.
+ * 
+ * A point read from a database of doubles or longs (see StatValue) keeps its
+ * sum, smallest, and largest statistic at that precision. The statistics of
+ * a point of longs are summed exactly without floating point conversions.
  * 
  * @author Philip Diffenderfer
  *
@@ -44,6 +58,11 @@ public class StatPoint extends DataSet
 	 */
 	public static final int SIZE = 24;
 	
+	/**
+	 * The largest total a point in a compact archive can hold.
+	 */
+	public static final long MAX_COMPACT_TOTAL = 0xFFFFFFFFL;
+	
 	
 	// Total statistics added to the point 
 	private final LongVar total;
@@ -57,6 +76,49 @@ public class StatPoint extends DataSet
 	// The largest statistic added
 	private final FloatVar max;
 	
+	// The sum of the squares of the statistics, this is not part of the 
+	// set since it is optional and its location is given by the format.
+	private final DoubleVar squares;
+	
+	// The type of the statistics of the point.
+	private StatValue type = StatValue.Float;
+	
+	// Whether the point has a sum, minimum, and maximum, and whether statistics need
+	// to be added to the squares, histogram, or aggregators.
+	private boolean summed = true;
+	private boolean minimum = true;
+	private boolean maximum = true;
+	private boolean extras = true;
+	
+	// The sum, smallest, and largest statistic of a point of longs.
+	private long longSum = 0L;
+	private long longMin = Long.MAX_VALUE;
+	private long longMax = Long.MIN_VALUE;
+	
+	// The smallest and largest statistic of a point of doubles.
+	private double doubleMin = +Double.MAX_VALUE;
+	private double doubleMax = -Double.MAX_VALUE;
+	
+	// The histogram of the statistics, this is null if the format of the
+	// point does not keep a histogram.
+	private StatHistogram histogram;
+	
+	// The store and locations of the histogram and estimate when statistics
+	// and items are counted in place, the store is null when the histogram
+	// and estimate are kept in this point.
+	private Store sketchStore;
+	private int histogramLocation;
+	private int cardinalityLocation;
+	
+	// The estimate of distinct items added, this is null if the format of 
+	// the point does not keep an estimate.
+	private StatCardinality cardinality;
+	
+	// The aggregators of the format of the point and the value each keeps,
+	// these are null if the format of the point has no aggregators.
+	private StatAggregator[] aggregators;
+	private ByteBuffer[] aggregates;
+	
 	// The starting time of this point.
 	private long startTime;
 	
@@ -74,10 +136,36 @@ public class StatPoint extends DataSet
 		this.sum = new DoubleVar(0.0);
 		this.min = new FloatVar(+Float.MAX_VALUE);
 		this.max = new FloatVar(-Float.MAX_VALUE);
+		this.squares = new DoubleVar(0.0);
 		
 		this.add(total, sum, min, max);
 	}
 	
+	/**
+	 * Adds the statistic, item, or point of the given event to this point.
+	 * 
+	 * @param event
+	 * 		The event to add to this point.
+	 */
+	protected void addEvent(StatEvent event)
+	{
+		if (event.getPoint() != null) {
+			merge(event.getPoint());
+		}
+		else if (event.getType() == StatValue.Long) {
+			addLong(event.getLongStatistic());
+		}
+		else if (event.getType() == StatValue.Double) {
+			addDouble(event.getDoubleStatistic());
+		}
+		else {
+			add(event.getStatistic());
+		}
+		if (event.isHashed()) {
+			addHash(event.getHash());
+		}
+	}
+	
 	/**
 	 * Adds a statistic to this point.
 	 * 
@@ -86,10 +174,200 @@ public class StatPoint extends DataSet
 	 */
 	protected void add(float value) 
 	{
+		if (type != StatValue.Float) {
+			addDouble(value);
+			return;
+		}
 		total.add(1);
 		sum.add(value);
 		min.min(value);
 		max.max(value);
+		if (extras) {
+			addExtras(value);
+		}
+	}
+	
+	/**
+	 * Adds a statistic to this point. If this is a point of floats the
+	 * statistic is converted to a float, if this is a point of longs the
+	 * statistic is rounded to the nearest long.
+	 * 
+	 * @param value
+	 * 		The statistic to add.
+	 */
+	protected void addDouble(double value)
+	{
+		if (type == StatValue.Float) {
+			add((float)value);
+			return;
+		}
+		if (type == StatValue.Long) {
+			addLong(Math.round(value));
+			return;
+		}
+		total.add(1);
+		sum.add(value);
+		doubleMin = Math.min(doubleMin, value);
+		doubleMax = Math.max(doubleMax, value);
+		if (extras) {
+			addExtras(value);
+		}
+	}
+	
+	/**
+	 * Adds a statistic to this point. If this is a point of longs the 
+	 * statistic is added without any floating point conversions.
+	 * 
+	 * @param value
+	 * 		The statistic to add.
+	 */
+	protected void addLong(long value)
+	{
+		if (type != StatValue.Long) {
+			addDouble(value);
+			return;
+		}
+		total.add(1);
+		longSum += value;
+		if (value < longMin) {
+			longMin = value;
+		}
+		if (value > longMax) {
+			longMax = value;
+		}
+		if (extras) {
+			addExtras(value);
+		}
+	}
+	
+	/**
+	 * Merges the statistics of the given point into this point. Afterwards 
+	 * this point is the summary of the statistics of both points. The sum of
+	 * squares of this point is only known if it is known in both points, and
+	 * the histogram, estimate, and aggregates of the given point are merged
+	 * only if they match those of this point.
+	 * 
+	 * @param point
+	 * 		The point to merge into this point.
+	 */
+	protected void merge(StatPoint point)
+	{
+		if (point.getTotal() == 0) {
+			return;
+		}
+		
+		total.add(point.getTotal());
+		
+		if (type == StatValue.Long) {
+			longSum += point.getLongSum();
+		}
+		else {
+			sum.add(point.getSum());
+		}
+		
+		if (!Double.isNaN(point.getMinimum())) {
+			if (type == StatValue.Long) {
+				longMin = Math.min(longMin, point.getLongMin());
+			}
+			else if (type == StatValue.Double) {
+				doubleMin = Math.min(doubleMin, point.getMinimum());
+			}
+			else {
+				min.min(point.getMin());
+			}
+		}
+		if (!Double.isNaN(point.getMaximum())) {
+			if (type == StatValue.Long) {
+				longMax = Math.max(longMax, point.getLongMax());
+			}
+			else if (type == StatValue.Double) {
+				doubleMax = Math.max(doubleMax, point.getMaximum());
+			}
+			else {
+				max.max(point.getMax());
+			}
+		}
+		
+		squares.add(point.getSquares());
+		
+		if (histogram != null && point.histogram != null && 
+			histogram.matches(point.histogram.getLowest(), point.histogram.getBucketCount())) {
+			histogram.merge(point.histogram);
+		}
+		if (cardinality != null && point.cardinality != null && 
+			cardinality.getPrecision() == point.cardinality.getPrecision()) {
+			cardinality.merge(point.cardinality);
+		}
+		for (int i = 0; aggregators != null && i < aggregators.length; i++) {
+			for (int k = 0; point.aggregators != null && k < point.aggregators.length; k++) {
+				if (aggregators[i].getName().equals(point.aggregators[k].getName())) {
+					aggregators[i].merge(aggregates[i], point.aggregates[k]);
+					break;
+				}
+			}
+		}
+	}
+	
+	/**
+	 * Sets this point to a summary of statistics that were aggregated 
+	 * elsewhere. The sum of squares of the summary is not known.
+	 * 
+	 * @param count
+	 * 		The number of statistics in the summary.
+	 * @param sum
+	 * 		The sum of the statistics.
+	 * @param min
+	 * 		The smallest statistic.
+	 * @param max
+	 * 		The largest statistic.
+	 */
+	protected void setSummary(long count, double sum, float min, float max)
+	{
+		this.total.set(count);
+		this.sum.set(sum);
+		this.min.set(min);
+		this.max.set(max);
+		this.squares.set(Double.NaN);
+	}
+	
+	/**
+	 * Adds a statistic to the sum of squares, histogram, and aggregators.
+	 */
+	private void addExtras(double value)
+	{
+		squares.add(value * value);
+		if (histogram != null) {
+			if (sketchStore != null) {
+				histogram.add((float)value, histogramLocation, sketchStore);
+			}
+			else {
+				histogram.add((float)value);
+			}
+		}
+		if (aggregators != null) {
+			for (int i = 0; i < aggregators.length; i++) {
+				aggregators[i].add(aggregates[i], (float)value);
+			}
+		}
+	}
+	
+	/**
+	 * Adds an item to the estimate of distinct items of this point, if this
+	 * point keeps an estimate.
+	 * 
+	 * @param hash
+	 * 		The 64-bit hash of the item.
+	 */
+	protected void addHash(long hash)
+	{
+		if (cardinality != null) {
+			if (sketchStore != null) {
+				cardinality.add(hash, cardinalityLocation, sketchStore);
+			}
+			else {
+				cardinality.add(hash);
+			}
+		}
 	}
 	
 	/**
@@ -101,6 +379,360 @@ public class StatPoint extends DataSet
 		sum.set(0.0);
 		min.set(+Float.MAX_VALUE);
 		max.set(-Float.MAX_VALUE);
+		squares.set(0.0);
+		longSum = 0L;
+		longMin = Long.MAX_VALUE;
+		longMax = Long.MIN_VALUE;
+		doubleMin = +Double.MAX_VALUE;
+		doubleMax = -Double.MAX_VALUE;
+		sketchStore = null;
+		if (histogram != null) {
+			histogram.clear();
+		}
+		if (cardinality != null) {
+			cardinality.clear();
+		}
+		if (aggregators != null) {
+			for (int i = 0; i < aggregators.length; i++) {
+				aggregators[i].clear(aggregates[i]);
+			}
+		}
+	}
+	
+	/**
+	 * Clears this point and prepares it to hold all the values the given 
+	 * format keeps, for points which are kept in memory instead of in an
+	 * archive. The sum of squares is NaN if the format does not keep it.
+	 * 
+	 * @param format
+	 * 		The format of the database the point summarizes.
+	 */
+	protected void reset(StatFormat format)
+	{
+		type = format.getValueType();
+		summed = true;
+		minimum = true;
+		maximum = true;
+		extras = (format.hasSquares() || format.hasHistogram() || format.getAggregatorCount() > 0);
+		
+		prepareHistogram(format);
+		prepareCardinality(format);
+		prepareAggregates(format);
+		clear();
+		
+		if (!format.hasSquares()) {
+			squares.set(Double.NaN);
+		}
+	}
+	
+	/**
+	 * Reads this point from an archive in the given store. Each value of the
+	 * point is read from where the format has laid it out.
+	 * 
+	 * @param format
+	 * 		The format of the database the point is in.
+	 * @param archive
+	 * 		The index of the archive in the database.
+	 * @param index
+	 * 		The absolute index of the point in the archive.
+	 * @param store
+	 * 		The store to read the point from.
+	 */
+	protected void read(StatFormat format, int archive, int index, Store store)
+	{
+		read(format, archive, index, store, true);
+	}
+	
+	/**
+	 * Reads this point from an archive in the given store. Each value of the
+	 * point is read from where the format has laid it out. When the histogram
+	 * and estimate are not read the statistics and items added to this point
+	 * are counted in place in the store, so adding a statistic doesn't read 
+	 * and write every bucket and register.
+	 * 
+	 * @param format
+	 * 		The format of the database the point is in.
+	 * @param archive
+	 * 		The index of the archive in the database.
+	 * @param index
+	 * 		The absolute index of the point in the archive.
+	 * @param store
+	 * 		The store to read the point from.
+	 * @param sketches
+	 * 		Whether the histogram and estimate are read, otherwise they're 
+	 * 		updated in place.
+	 */
+	protected void read(StatFormat format, int archive, int index, Store store, boolean sketches)
+	{
+		if (format.isCompact(archive)) {
+			total.set(Bits.getUInt(store.get(format.getPointTotalOffset(archive, index), 4)));
+		}
+		else {
+			total.read(format.getPointTotalOffset(archive, index) - total.getLocation(), store);
+		}
+		int sumSize = format.getFieldSize(archive, StatFormat.FIELD_SUM);
+		int minSize = format.getFieldSize(archive, StatFormat.FIELD_MIN);
+		int maxSize = format.getFieldSize(archive, StatFormat.FIELD_MAX);
+		int squaresSize = format.getFieldSize(archive, StatFormat.FIELD_SQUARES);
+		
+		type = format.getValueType();
+		summed = (sumSize > 0);
+		minimum = (minSize > 0);
+		maximum = (maxSize > 0);
+		extras = (squaresSize > 0 || format.hasHistogram() || format.getAggregatorCount() > 0);
+		
+		if (!summed) {
+			sum.set(Double.NaN);
+		}
+		else if (type == StatValue.Long) {
+			longSum = readLong(store, format.getPointSumOffset(archive, index), sumSize);
+		}
+		else {
+			sum.set(readDouble(store, format.getPointSumOffset(archive, index), sumSize));
+		}
+		if (!minimum) {
+			min.set(Float.NaN);
+		}
+		else if (type == StatValue.Long) {
+			longMin = readLong(store, format.getPointMinOffset(archive, index), minSize);
+		}
+		else if (type == StatValue.Double) {
+			doubleMin = readDouble(store, format.getPointMinOffset(archive, index), minSize);
+		}
+		else {
+			min.set((float)readDouble(store, format.getPointMinOffset(archive, index), minSize));
+		}
+		if (!maximum) {
+			max.set(Float.NaN);
+		}
+		else if (type == StatValue.Long) {
+			longMax = readLong(store, format.getPointMaxOffset(archive, index), maxSize);
+		}
+		else if (type == StatValue.Double) {
+			doubleMax = readDouble(store, format.getPointMaxOffset(archive, index), maxSize);
+		}
+		else {
+			max.set((float)readDouble(store, format.getPointMaxOffset(archive, index), maxSize));
+		}
+		if (squaresSize == 0) {
+			squares.set(Double.NaN);
+		}
+		else {
+			squares.set(readDouble(store, format.getPointSquaresOffset(archive, index), squaresSize));
+		}
+		sketchStore = (sketches ? null : store);
+		if (prepareHistogram(format)) {
+			if (sketches) {
+				histogram.read(format.getPointHistogramOffset(archive, index), store);
+			}
+			else {
+				histogramLocation = format.getPointHistogramOffset(archive, index);
+			}
+		}
+		if (prepareCardinality(format)) {
+			if (sketches) {
+				cardinality.read(format.getPointCardinalityOffset(archive, index), store);
+			}
+			else {
+				cardinalityLocation = format.getPointCardinalityOffset(archive, index);
+			}
+		}
+		if (prepareAggregates(format)) {
+			for (int i = 0; i < aggregates.length; i++) {
+				aggregates[i].clear();
+				store.get(format.getPointAggregateOffset(archive, index, i), aggregates[i]);
+			}
+		}
+	}
+	
+	/**
+	 * Writes this point to an archive in the given store. Each value of the
+	 * point is written to where the format has laid it out.
+	 * 
+	 * @param format
+	 * 		The format of the database the point is in.
+	 * @param archive
+	 * 		The index of the archive in the database.
+	 * @param index
+	 * 		The absolute index of the point in the archive.
+	 * @param store
+	 * 		The store to write the point to.
+	 */
+	protected void write(StatFormat format, int archive, int index, Store store)
+	{
+		write(format, archive, index, store, true);
+	}
+	
+	/**
+	 * Writes this point to an archive in the given store. Each value of the
+	 * point is written to where the format has laid it out.
+	 * 
+	 * @param format
+	 * 		The format of the database the point is in.
+	 * @param archive
+	 * 		The index of the archive in the database.
+	 * @param index
+	 * 		The absolute index of the point in the archive.
+	 * @param store
+	 * 		The store to write the point to.
+	 * @param sketches
+	 * 		Whether the histogram and estimate are written, they should only be
+	 * 		skipped when they were updated in place.
+	 */
+	protected void write(StatFormat format, int archive, int index, Store store, boolean sketches)
+	{
+		if (format.isCompact(archive)) {
+			store.put(format.getPointTotalOffset(archive, index), Bits.getUIntBytes(Math.min(total.get(), MAX_COMPACT_TOTAL)));
+		}
+		else {
+			total.write(format.getPointTotalOffset(archive, index) - total.getLocation(), store);
+		}
+		boolean longs = (format.getValueType() == StatValue.Long);
+		int sumSize = format.getFieldSize(archive, StatFormat.FIELD_SUM);
+		int minSize = format.getFieldSize(archive, StatFormat.FIELD_MIN);
+		int maxSize = format.getFieldSize(archive, StatFormat.FIELD_MAX);
+		int squaresSize = format.getFieldSize(archive, StatFormat.FIELD_SQUARES);
+		
+		if (sumSize > 0) {
+			if (longs) {
+				writeLong(store, format.getPointSumOffset(archive, index), sumSize, getLongSum());
+			}
+			else {
+				writeDouble(store, format.getPointSumOffset(archive, index), sumSize, getSum());
+			}
+		}
+		if (minSize > 0) {
+			if (longs) {
+				writeLong(store, format.getPointMinOffset(archive, index), minSize, getLongMin());
+			}
+			else {
+				writeDouble(store, format.getPointMinOffset(archive, index), minSize, getMinimum());
+			}
+		}
+		if (maxSize > 0) {
+			if (longs) {
+				writeLong(store, format.getPointMaxOffset(archive, index), maxSize, getLongMax());
+			}
+			else {
+				writeDouble(store, format.getPointMaxOffset(archive, index), maxSize, getMaximum());
+			}
+		}
+		if (squaresSize > 0) {
+			writeDouble(store, format.getPointSquaresOffset(archive, index), squaresSize, squares.get());
+		}
+		if (prepareHistogram(format) && sketches) {
+			histogram.write(format.getPointHistogramOffset(archive, index), store);
+		}
+		if (prepareCardinality(format) && sketches) {
+			cardinality.write(format.getPointCardinalityOffset(archive, index), store);
+		}
+		if (prepareAggregates(format)) {
+			for (int i = 0; i < aggregates.length; i++) {
+				aggregates[i].clear();
+				store.put(format.getPointAggregateOffset(archive, index, i), aggregates[i]);
+			}
+		}
+	}
+	
+	/**
+	 * Reads a long stored in the given number of bytes, 4 bytes is a float.
+	 */
+	private static long readLong(Store store, int offset, int size)
+	{
+		return (size == 4 ? Math.round((double)Bits.getFloat(store.get(offset, 4))) : Bits.getLong(store.get(offset, 8)));
+	}
+	
+	/**
+	 * Reads a double stored in the given number of bytes, 4 bytes is a float.
+	 */
+	private static double readDouble(Store store, int offset, int size)
+	{
+		return (size == 4 ? Bits.getFloat(store.get(offset, 4)) : Bits.getDouble(store.get(offset, 8)));
+	}
+	
+	/**
+	 * Writes a long in the given number of bytes, 4 bytes is a float.
+	 */
+	private static void writeLong(Store store, int offset, int size, long value)
+	{
+		store.put(offset, size == 4 ? Bits.getFloatBytes(value) : Bits.getLongBytes(value));
+	}
+	
+	/**
+	 * Writes a double in the given number of bytes, 4 bytes is a float.
+	 */
+	private static void writeDouble(Store store, int offset, int size, double value)
+	{
+		store.put(offset, size == 4 ? Bits.getFloatBytes((float)value) : Bits.getDoubleBytes(value));
+	}
+	
+	/**
+	 * Ensures the histogram of this point matches the histogram of the given
+	 * format, a point that has no histogram or a different histogram is given
+	 * a new empty one.
+	 * 
+	 * @return
+	 * 		True if the format keeps a histogram, otherwise false.
+	 */
+	private boolean prepareHistogram(StatFormat format)
+	{
+		if (!format.hasHistogram()) {
+			histogram = null;
+		}
+		else if (histogram == null || !histogram.matches(format.getHistogramLowest(), format.getHistogramBuckets())) {
+			histogram = new StatHistogram(format.getHistogramLowest(), format.getHistogramBuckets());
+		}
+		return (histogram != null);
+	}
+	
+	/**
+	 * Ensures the distinct item estimate of this point matches the estimate 
+	 * of the given format, a point that has no estimate or an estimate with a
+	 * different precision is given a new empty one.
+	 * 
+	 * @return
+	 * 		True if the format keeps an estimate, otherwise false.
+	 */
+	private boolean prepareCardinality(StatFormat format)
+	{
+		if (!format.hasCardinality()) {
+			cardinality = null;
+		}
+		else if (cardinality == null || cardinality.getPrecision() != format.getCardinalityPrecision()) {
+			cardinality = new StatCardinality(format.getCardinalityPrecision());
+		}
+		return (cardinality != null);
+	}
+	
+	/**
+	 * Ensures the aggregates of this point match the aggregators of the given
+	 * format, a point with different aggregators is given new empty aggregates.
+	 * 
+	 * @return
+	 * 		True if the format has aggregators, otherwise false.
+	 */
+	private boolean prepareAggregates(StatFormat format)
+	{
+		int count = format.getAggregatorCount();
+		if (count == 0) {
+			aggregators = null;
+			aggregates = null;
+			return false;
+		}
+		boolean matches = (aggregators != null && aggregators.length == count);
+		for (int i = 0; matches && i < count; i++) {
+			matches = (aggregators[i] == format.getAggregator(i));
+		}
+		if (!matches) {
+			aggregators = new StatAggregator[count];
+			aggregates = new ByteBuffer[count];
+			for (int i = 0; i < count; i++) {
+				aggregators[i] = format.getAggregator(i);
+				aggregates[i] = ByteBuffer.allocate(aggregators[i].getSize());
+				aggregators[i].clear(aggregates[i]);
+			}
+		}
+		return true;
 	}
 	
 	/**
@@ -138,15 +770,27 @@ public class StatPoint extends DataSet
 	 */
 	public double getSum() 
 	{
+		if (type == StatValue.Long) {
+			return (summed ? longSum : Double.NaN);
+		}
 		return sum.get();
 	}
 	
+	/**
+	 * Returns the exact sum of all statistics added to this point if it is a
+	 * point of longs, otherwise the sum rounded to the nearest long.
+	 */
+	public long getLongSum()
+	{
+		return (type == StatValue.Long ? longSum : Math.round(sum.get()));
+	}
+	
 	/**
 	 * Returns the average of all statistics added to this point.
 	 */
 	public double getAverage() 
 	{
-		return sum.get() / total.get();
+		return getSum() / total.get();
 	}
 
 	/**
@@ -154,7 +798,7 @@ public class StatPoint extends DataSet
 	 */
 	public float getMin() 
 	{
-		return min.get();
+		return (type == StatValue.Float ? min.get() : (float)getMinimum());
 	}
 
 	/**
@@ -162,7 +806,208 @@ public class StatPoint extends DataSet
 	 */
 	public float getMax() 
 	{
-		return max.get();
+		return (type == StatValue.Float ? max.get() : (float)getMaximum());
+	}
+	
+	/**
+	 * Returns the smallest statistic added to this point at the precision of
+	 * the point.
+	 */
+	public double getMinimum()
+	{
+		switch (type) {
+		case Long:
+			return (minimum ? longMin : Double.NaN);
+		case Double:
+			return (minimum ? doubleMin : Double.NaN);
+		default:
+			return min.get();
+		}
+	}
+	
+	/**
+	 * Returns the largest statistic added to this point at the precision of
+	 * the point.
+	 */
+	public double getMaximum()
+	{
+		switch (type) {
+		case Long:
+			return (maximum ? longMax : Double.NaN);
+		case Double:
+			return (maximum ? doubleMax : Double.NaN);
+		default:
+			return max.get();
+		}
+	}
+	
+	/**
+	 * Returns the smallest statistic added to this point if it is a point of
+	 * longs, otherwise the smallest statistic rounded to the nearest long.
+	 */
+	public long getLongMin()
+	{
+		return (type == StatValue.Long ? longMin : Math.round(getMinimum()));
+	}
+	
+	/**
+	 * Returns the largest statistic added to this point if it is a point of
+	 * longs, otherwise the largest statistic rounded to the nearest long.
+	 */
+	public long getLongMax()
+	{
+		return (type == StatValue.Long ? longMax : Math.round(getMaximum()));
+	}
+	
+	/**
+	 * Returns the type of the statistics of this point.
+	 */
+	public StatValue getValueType()
+	{
+		return type;
+	}
+	
+	/**
+	 * Returns the sum of the squares of all statistics added to this point. If
+	 * the point was read from a format which does not keep the sum of squares
+	 * then this is NaN.
+	 */
+	public double getSquares()
+	{
+		return squares.get();
+	}
+	
+	/**
+	 * Returns the (population) variance of all statistics added to this point.
+	 * If the point was read from a format which does not keep the sum of 
+	 * squares then this is NaN.
+	 */
+	public double getVariance()
+	{
+		double average = getAverage();
+		double variance = squares.get() / total.get() - average * average;
+		
+		// Rounding error can push the variance of near constant points below zero.
+		return (variance < 0.0 ? 0.0 : variance);
+	}
+	
+	/**
+	 * Returns the (population) standard deviation of all statistics added to 
+	 * this point. If the point was read from a format which does not keep the 
+	 * sum of squares then this is NaN.
+	 */
+	public double getStdDev()
+	{
+		return Math.sqrt(getVariance());
+	}
+	
+	/**
+	 * Returns the estimated value which the given fraction of the statistics
+	 * added to this point are less than or equal to. The estimate is never 
+	 * outside of the smallest and largest statistic of the point, when the 
+	 * point keeps them. If the point was read from a format which does not 
+	 * keep a histogram then this is NaN.
+	 * 
+	 * @param quantile
+	 * 		The quantile between 0.0 and 1.0 (0.5 is the median).
+	 * @return
+	 * 		The estimated value of the quantile.
+	 * @see StatFormat#setHistogram(float, int)
+	 */
+	public double getQuantile(double quantile)
+	{
+		if (histogram == null) {
+			return Double.NaN;
+		}
+		double value = histogram.getQuantile(quantile);
+		
+		// Clamp to the extremes the point keeps, if it keeps them.
+		double smallest = getMinimum();
+		double largest = getMaximum();
+		if (!Double.isNaN(largest)) {
+			value = Math.min(largest, value);
+		}
+		if (!Double.isNaN(smallest)) {
+			value = Math.max(smallest, value);
+		}
+		return value;
+	}
+	
+	/**
+	 * Returns the histogram of the statistics added to this point.
+	 * 
+	 * @return
+	 * 		The histogram of this point, or null if the point was read from a
+	 * 		format which does not keep a histogram.
+	 */
+	public StatHistogram getHistogram()
+	{
+		return histogram;
+	}
+	
+	/**
+	 * Returns the estimated number of distinct items added to this point. If
+	 * the point was read from a format which does not keep an estimate then
+	 * this is NaN.
+	 * 
+	 * @return
+	 * 		The estimated number of distinct items.
+	 * @see StatFormat#setCardinality(int)
+	 */
+	public double getDistinct()
+	{
+		return (cardinality == null ? Double.NaN : cardinality.getEstimate());
+	}
+	
+	/**
+	 * Returns the estimate of the distinct items added to this point.
+	 * 
+	 * @return
+	 * 		The estimate of this point, or null if the point was read from a 
+	 * 		format which does not keep an estimate.
+	 */
+	public StatCardinality getCardinality()
+	{
+		return cardinality;
+	}
+	
+	/**
+	 * Returns the value of the aggregator at the given index in the format of
+	 * this point.
+	 * 
+	 * @param aggregator
+	 * 		The index of the aggregator in the format.
+	 * @return
+	 * 		The value of the aggregator, or NaN if the point was read from a 
+	 * 		format without the aggregator.
+	 * @see StatFormat#addAggregator(StatAggregator)
+	 */
+	public double getAggregate(int aggregator)
+	{
+		if (aggregators == null || aggregator < 0 || aggregator >= aggregators.length) {
+			return Double.NaN;
+		}
+		return aggregators[aggregator].getValue(aggregates[aggregator]);
+	}
+	
+	/**
+	 * Returns the value of the aggregator with the given name in the format of
+	 * this point.
+	 * 
+	 * @param name
+	 * 		The name of the aggregator.
+	 * @return
+	 * 		The value of the aggregator, or NaN if the point was read from a 
+	 * 		format without the aggregator.
+	 */
+	public double getAggregate(String name)
+	{
+		for (int i = 0; aggregators != null && i < aggregators.length; i++) {
+			if (aggregators[i].getName().equals(name)) {
+				return getAggregate(i);
+			}
+		}
+		return Double.NaN;
 	}
 	
 	/**
@@ -0,0 +1,436 @@
+/* 
+ * NOTICE OF LICENSE
+ * 
+ * This source file is subject to the Open Software License (OSL 3.0) that is 
+ * bundled with this package in the file LICENSE.txt. It is also available 
+ * through the world-wide-web at http://opensource.org/licenses/osl-3.0.php
+ * If you did not receive a copy of the license and are unable to obtain it 
+ * through the world-wide-web, please send an email to pdiffenderfer@gmail.com 
+ * so we can send you a copy immediately. If you use any of this software please
+ * notify me via my website or email, your feedback is much appreciated. 
+ * 
+ * @copyright   Copyright (c) 2011 Magnos Software (http://www.magnos.org)
+ * @license     http://opensource.org/licenses/osl-3.0.php
+ * 				Open Software License (OSL 3.0)
+ */
+
+package org.magnos.stat;
+
+/**
+ * A series of points read from the archives of a database over a range of
+ * time, kept as arrays of primitives instead of a StatPoint per point. The
+ * point at 0 is the oldest and the last point is the newest. The points of a
+ * series stitched from several archives can have different intervals, the
+ * start and end time of each point are kept.
+ * 
+ * The arrays returned by a series are the arrays it holds, they should not
+ * be modified.
+ * 
+ * @author Philip Diffenderfer
+ * @see StatDatabase#fetch(long, long, int)
+ */
+public class StatSeries
+{
+	
+	// The start and end time of each point.
+	private final long[] starts;
+	private final long[] ends;
+	
+	// The total statistics of each point.
+	private final long[] totals;
+	
+	// The sum of the statistics of each point.
+	private final double[] sums;
+	
+	// The smallest and largest statistic of each point.
+	private final double[] mins;
+	private final double[] maxs;
+	
+	
+	/**
+	 * Instantiates a new StatSeries with the given number of points.
+	 * 
+	 * @param size
+	 * 		The number of points in the series.
+	 */
+	protected StatSeries(int size)
+	{
+		this.starts = new long[size];
+		this.ends = new long[size];
+		this.totals = new long[size];
+		this.sums = new double[size];
+		this.mins = new double[size];
+		this.maxs = new double[size];
+	}
+	
+	/**
+	 * Instantiates a new StatSeries of empty points of the given interval, 
+	 * which points of other series can be added to.
+	 * 
+	 * @param start
+	 * 		The start time of the first point.
+	 * @param interval
+	 * 		The interval of each point in milliseconds.
+	 * @param size
+	 * 		The number of points in the series.
+	 */
+	protected StatSeries(long start, long interval, int size)
+	{
+		this(size);
+		
+		for (int i = 0; i < size; i++) {
+			starts[i] = start + interval * i;
+			ends[i] = starts[i] + interval;
+			mins[i] = Double.NaN;
+			maxs[i] = Double.NaN;
+		}
+	}
+	
+	/**
+	 * Adds each point of the given series to the point of this series its
+	 * start time is in, points which start outside of this series are 
+	 * ignored. The points of this series must all have the same interval.
+	 * 
+	 * @param series
+	 * 		The series to add the points of.
+	 */
+	protected void add(StatSeries series)
+	{
+		int size = getSize();
+		if (size == 0) {
+			return;
+		}
+		long start = starts[0];
+		long interval = ends[0] - starts[0];
+		
+		for (int i = 0; i < series.getSize(); i++) {
+			long offset = series.starts[i] - start;
+			if (series.totals[i] == 0 || offset < 0 || offset / interval >= size) {
+				continue;
+			}
+			add((int)(offset / interval), series, i);
+		}
+	}
+	
+	/**
+	 * Merges the points of the given series into the points of this series,
+	 * both series must have the same points.
+	 * 
+	 * @param series
+	 * 		The series to merge.
+	 */
+	protected void merge(StatSeries series)
+	{
+		for (int i = 0; i < series.getSize(); i++) {
+			if (series.totals[i] > 0) {
+				add(i, series, i);
+			}
+		}
+	}
+	
+	/**
+	 * Returns a series of this series reduced to at most the given number of
+	 * points with the given method.
+	 * 
+	 * @param points
+	 * 		The most points in the returned series, at least 3 for the 
+	 * 		LargestTriangle method.
+	 * @param method
+	 * 		The method of reducing the points.
+	 * @return
+	 * 		The reduced series, or this series if it has no more than the 
+	 * 		given number of points.
+	 * @throws IllegalArgumentException
+	 * 		There are too few points for the method.
+	 */
+	public StatSeries downsample(int points, StatDownsample method)
+	{
+		int minimum = (method == StatDownsample.LargestTriangle ? 3 : 1);
+		if (points < minimum) {
+			throw new IllegalArgumentException("Downsampling requires at least " + minimum + " points");
+		}
+		if (getSize() <= points) {
+			return this;
+		}
+		switch (method) {
+		case Consolidate:
+			return consolidate(points);
+		case LargestTriangle:
+			return largestTriangle(points);
+		}
+		return this;
+	}
+	
+	/**
+	 * Returns a series of the given number of points where each point is the
+	 * merge of consecutive points of this series.
+	 */
+	private StatSeries consolidate(int points)
+	{
+		int size = getSize();
+		StatSeries series = new StatSeries(points);
+		
+		for (int i = 0; i < points; i++) {
+			int first = (int)((long)i * size / points);
+			int last = (int)((long)(i + 1) * size / points) - 1;
+			
+			series.starts[i] = starts[first];
+			series.ends[i] = ends[last];
+			series.mins[i] = Double.NaN;
+			series.maxs[i] = Double.NaN;
+			
+			for (int k = first; k <= last; k++) {
+				if (totals[k] > 0) {
+					series.add(i, this, k);
+				}
+			}
+		}
+		return series;
+	}
+	
+	/**
+	 * Returns a series of the given number of points of this series chosen 
+	 * with the Largest-Triangle-Three-Buckets algorithm, using the start time
+	 * and average of each point.
+	 */
+	private StatSeries largestTriangle(int points)
+	{
+		int size = getSize();
+		StatSeries series = new StatSeries(points);
+		
+		// The width of each bucket between the first and last point.
+		double every = (double)(size - 2) / (points - 2);
+		int chosen = 0;
+		series.copy(0, this, 0);
+		
+		for (int i = 0; i < points - 2; i++) {
+			// The average of the next bucket, or the last point.
+			int nextFirst = (int)((i + 1) * every) + 1;
+			int nextEnd = Math.min((int)((i + 2) * every) + 1, size);
+			double nextTime = 0.0;
+			double nextValue = 0.0;
+			for (int k = nextFirst; k < nextEnd; k++) {
+				nextTime += starts[k];
+				nextValue += getValue(k);
+			}
+			nextTime /= (nextEnd - nextFirst);
+			nextValue /= (nextEnd - nextFirst);
+			
+			// The point in this bucket with the largest triangle.
+			int first = (int)(i * every) + 1;
+			int end = (int)((i + 1) * every) + 1;
+			double chosenTime = starts[chosen];
+			double chosenValue = getValue(chosen);
+			double largest = -1.0;
+			int next = first;
+			for (int k = first; k < end; k++) {
+				double area = Math.abs((chosenTime - nextTime) * (getValue(k) - chosenValue) - 
+										(chosenTime - starts[k]) * (nextValue - chosenValue));
+				// An empty point is only chosen if the bucket is empty.
+				if (totals[k] == 0) {
+					area = -0.5;
+				}
+				if (area > largest) {
+					largest = area;
+					next = k;
+				}
+			}
+			
+			series.copy(i + 1, this, next);
+			chosen = next;
+		}
+		
+		series.copy(points - 1, this, size - 1);
+		return series;
+	}
+	
+	/**
+	 * Returns the value of the point at the given index used to downsample,
+	 * the average or zero if the point is empty.
+	 */
+	private double getValue(int index)
+	{
+		double average = getAverage(index);
+		return (totals[index] == 0 || Double.isNaN(average) ? 0.0 : average);
+	}
+	
+	/**
+	 * Sets the point at the given index of this series to the point at the 
+	 * given index of a series.
+	 */
+	private void copy(int index, StatSeries series, int point)
+	{
+		starts[index] = series.starts[point];
+		ends[index] = series.ends[point];
+		totals[index] = series.totals[point];
+		sums[index] = series.sums[point];
+		mins[index] = series.mins[point];
+		maxs[index] = series.maxs[point];
+	}
+	
+	/**
+	 * Sets the points of this series starting at the given index to the 
+	 * points of the given series.
+	 * 
+	 * @param offset
+	 * 		The index of the first point to set.
+	 * @param series
+	 * 		The series of the points.
+	 */
+	protected void set(int offset, StatSeries series)
+	{
+		int size = series.getSize();
+		System.arraycopy(series.starts, 0, starts, offset, size);
+		System.arraycopy(series.ends, 0, ends, offset, size);
+		System.arraycopy(series.totals, 0, totals, offset, size);
+		System.arraycopy(series.sums, 0, sums, offset, size);
+		System.arraycopy(series.mins, 0, mins, offset, size);
+		System.arraycopy(series.maxs, 0, maxs, offset, size);
+	}
+	
+	/**
+	 * Adds the point at the given index of a series to the point at the given
+	 * index of this series.
+	 */
+	private void add(int index, StatSeries series, int point)
+	{
+		totals[index] += series.totals[point];
+		sums[index] += series.sums[point];
+		mins[index] = min(mins[index], series.mins[point]);
+		maxs[index] = max(maxs[index], series.maxs[point]);
+	}
+	
+	/**
+	 * Returns the smaller value, a NaN value is ignored.
+	 */
+	private static double min(double a, double b)
+	{
+		return (Double.isNaN(a) || b < a ? b : a);
+	}
+	
+	/**
+	 * Returns the larger value, a NaN value is ignored.
+	 */
+	private static double max(double a, double b)
+	{
+		return (Double.isNaN(a) || b > a ? b : a);
+	}
+	
+	/**
+	 * Returns the number of points in this series.
+	 */
+	public int getSize()
+	{
+		return totals.length;
+	}
+	
+	/**
+	 * Returns the start time of the point at the given index in milliseconds
+	 * since the Unix epoch.
+	 */
+	public long getStartTime(int index)
+	{
+		return starts[index];
+	}
+	
+	/**
+	 * Returns the end time of the point at the given index in milliseconds
+	 * since the Unix epoch.
+	 */
+	public long getEndTime(int index)
+	{
+		return ends[index];
+	}
+	
+	/**
+	 * Returns the total statistics of the point at the given index.
+	 */
+	public long getTotal(int index)
+	{
+		return totals[index];
+	}
+	
+	/**
+	 * Returns the sum of the statistics of the point at the given index, or
+	 * NaN if the archive of the point does not keep the sum.
+	 */
+	public double getSum(int index)
+	{
+		return sums[index];
+	}
+	
+	/**
+	 * Returns the average of the statistics of the point at the given index.
+	 */
+	public double getAverage(int index)
+	{
+		return sums[index] / totals[index];
+	}
+	
+	/**
+	 * Returns the smallest statistic of the point at the given index, or NaN
+	 * if the archive of the point does not keep it.
+	 */
+	public double getMin(int index)
+	{
+		return mins[index];
+	}
+	
+	/**
+	 * Returns the largest statistic of the point at the given index, or NaN
+	 * if the archive of the point does not keep it.
+	 */
+	public double getMax(int index)
+	{
+		return maxs[index];
+	}
+	
+	/**
+	 * Returns the start times of the points.
+	 */
+	public long[] getStartTimes()
+	{
+		return starts;
+	}
+	
+	/**
+	 * Returns the end times of the points.
+	 */
+	public long[] getEndTimes()
+	{
+		return ends;
+	}
+	
+	/**
+	 * Returns the totals of the points.
+	 */
+	public long[] getTotals()
+	{
+		return totals;
+	}
+	
+	/**
+	 * Returns the sums of the points.
+	 */
+	public double[] getSums()
+	{
+		return sums;
+	}
+	
+	/**
+	 * Returns the smallest statistics of the points.
+	 */
+	public double[] getMins()
+	{
+		return mins;
+	}
+	
+	/**
+	 * Returns the largest statistics of the points.
+	 */
+	public double[] getMaxs()
+	{
+		return maxs;
+	}
+	
+}
@@ -16,6 +16,9 @@
 
 package org.magnos.stat;
 
+import java.util.ArrayList;
+import java.util.List;
+
 import org.magnos.service.AbstractService;
 
 /**
@@ -25,6 +28,13 @@ import org.magnos.service.AbstractService;
  * execution without blocking due to I/O operations. Essentially this service
  * exists to perform all I/O operations involved statistic databases.
  * 
+ * Groups can be scheduled with the service so the archives of their databases
+ * are advanced even when no statistics are being added to them. Scheduled
+ * groups are placed on a wheel of slots which the service turns one slot
+ * every tick resolution, when the wheel passes a slot all databases in the
+ * groups of that slot are advanced together. Groups are spread evenly across
+ * the slots so they do not all roll over at the same moment.
+ * 
  * @author Philip Diffenderfer
  *
  */
@@ -35,6 +45,17 @@ public final class StatService extends AbstractService<StatEvent>
 	// single instance is created and the service is started.
 	private static final StatService instance = new StatService();
 	
+	/**
+	 * The default number of milliseconds between each slot on the tick wheel.
+	 */
+	public static final long DEFAULT_TICK_RESOLUTION = 250;
+	
+	/**
+	 * The number of slots on the tick wheel. A scheduled group is advanced 
+	 * once every (tick resolution * slots) milliseconds.
+	 */
+	public static final int TICK_SLOTS = 16;
+	
 	
 	/**
 	 * Returns the single instance of this service.
@@ -48,6 +69,21 @@ public final class StatService extends AbstractService<StatEvent>
 	}
 	
 	
+	
+	// The slots of the tick wheel, each slot has the groups to advance when 
+	// the wheel passes it.
+	private final List<List<StatGroup>> wheel;
+	
+	// The number of milliseconds between each slot on the tick wheel.
+	private volatile long tickResolution = DEFAULT_TICK_RESOLUTION;
+	
+	// The slot the tick wheel will pass next.
+	private int tickSlot;
+	
+	// The time the tick wheel will pass the next slot.
+	private long tickTime;
+	
+	
 	/**
 	 * Instantiates a new StatService.
 	 */
@@ -56,10 +92,123 @@ public final class StatService extends AbstractService<StatEvent>
 		// Using a blocking queue
 		super(true);
 		
+		// Build the empty tick wheel.
+		wheel = new ArrayList<List<StatGroup>>(TICK_SLOTS);
+		for (int i = 0; i < TICK_SLOTS; i++) {
+			wheel.add(new ArrayList<StatGroup>());
+		}
+		tickTime = System.currentTimeMillis() + tickResolution;
+		
+		// Wake up from waiting on events to turn the wheel.
+		getEventQueue().setTimeout(tickResolution);
+		
 		// Start but do not wait for it to finish.
 		start(false);
 	}
 	
+	/**
+	 * Schedules the given group with this service so that all databases in 
+	 * the group (not its children) are periodically advanced to the current 
+	 * time, even when no statistics are added to them. The group is placed in
+	 * the slot of the tick wheel with the fewest groups.
+	 * 
+	 * @param group
+	 * 		The group to schedule.
+	 */
+	public void schedule(StatGroup group) 
+	{
+		synchronized (wheel) 
+		{
+			List<StatGroup> emptiest = wheel.get(0);
+			for (List<StatGroup> slot : wheel) {
+				if (slot.contains(group)) {
+					return;
+				}
+				if (slot.size() < emptiest.size()) {
+					emptiest = slot;
+				}
+			}
+			emptiest.add(group);
+		}
+	}
+	
+	/**
+	 * Removes the given group from the tick wheel. The databases in the group
+	 * will then only be advanced when statistics are added to them.
+	 * 
+	 * @param group
+	 * 		The group to unschedule.
+	 * @return
+	 * 		True if the group was scheduled, otherwise false.
+	 */
+	public boolean unschedule(StatGroup group) 
+	{
+		synchronized (wheel) 
+		{
+			for (List<StatGroup> slot : wheel) {
+				if (slot.remove(group)) {
+					return true;
+				}
+			}
+			return false;
+		}
+	}
+	
+	/**
+	 * Returns the number of milliseconds between each slot on the tick wheel.
+	 * 
+	 * @return
+	 * 		The tick resolution in milliseconds.
+	 */
+	public long getTickResolution() 
+	{
+		return tickResolution;
+	}
+	
+	/**
+	 * Sets the number of milliseconds between each slot on the tick wheel. A
+	 * scheduled group is advanced once every (resolution * TICK_SLOTS) 
+	 * milliseconds.
+	 * 
+	 * @param resolution
+	 * 		The tick resolution in milliseconds.
+	 */
+	public void setTickResolution(long resolution) 
+	{
+		tickResolution = resolution;
+		getEventQueue().setTimeout(resolution);
+	}
+	
+	/**
+	 * Turns the tick wheel up to the given time, advancing the groups in each
+	 * slot passed. If the wheel has fallen more than a full turn behind only
+	 * a single turn is made.
+	 * 
+	 * @param time
+	 * 		The current time in milliseconds since the Unix epoch.
+	 */
+	private void tick(long time)
+	{
+		int passed = 0;
+		
+		while (tickTime <= time && passed < TICK_SLOTS) 
+		{
+			synchronized (wheel) {
+				for (StatGroup group : wheel.get(tickSlot)) {
+					group.tick(time, StatTarget.This);
+				}
+			}
+			tickSlot = (tickSlot + 1) % TICK_SLOTS;
+			tickTime += tickResolution;
+			passed++;
+		}
+		
+		// The wheel fell behind, resume turning from now.
+		if (tickTime <= time) {
+			tickTime = time + tickResolution;
+		}
+	}
+	
 	/**
 	 * {@inheritDoc}
 	 */
@@ -67,6 +216,11 @@ public final class StatService extends AbstractService<StatEvent>
 	protected void onEvent(StatEvent event) 
 	{
 		event.execute();
+		
+		// Under constant load the service never waits, turn the wheel here.
+		if (event.getTime() >= tickTime) {
+			tick(event.getTime());
+		}
 	}
 
 	/**
@@ -75,6 +229,7 @@ public final class StatService extends AbstractService<StatEvent>
 	@Override
 	protected void onExecute() 
 	{
+		tick(System.currentTimeMillis());
 	}
 
 	/**
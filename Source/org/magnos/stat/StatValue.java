@@ -0,0 +1,54 @@
+/* 
+ * NOTICE OF LICENSE
+ * 
+ * This source file is subject to the Open Software License (OSL 3.0) that is 
+ * bundled with this package in the file LICENSE.txt. It is also available 
+ * through the world-wide-web at http://opensource.org/licenses/osl-3.0.php
+ * If you did not receive a copy of the license and are unable to obtain it 
+ * through the world-wide-web, please send an email to pdiffenderfer@gmail.com 
+ * so we can send you a copy immediately. If you use any of this software please
+ * notify me via my website or email, your feedback is much appreciated. 
+ * 
+ * @copyright   Copyright (c) 2011 Magnos Software (http://www.magnos.org)
+ * @license     http://opensource.org/licenses/osl-3.0.php
+ * 				Open Software License (OSL 3.0)
+ */
+
+package org.magnos.stat;
+
+/**
+ * Specifies the type of the statistics added to a database, which decides how
+ * the sum and the smallest and largest statistic of each point are stored.
+ * 
+ * <pre>
+ * Float:  sum(double 8) min(float 4)  max(float 4)
+ * Double: sum(double 8) min(double 8) max(double 8)
+ * Long:   sum(long 8)   min(long 8)   max(long 8)
+ * </pre>
+ * 
+ * The values of compact archives are always stored as floats.
+ * 
+ * @author Philip Diffenderfer
+ * @see StatFormat#setValueType(StatValue)
+ */
+public enum StatValue 
+{
+	
+	/**
+	 * Statistics are floats. This is the original type.
+	 */
+	Float,
+	
+	/**
+	 * Statistics are doubles, for values which need more than the 24 bits of
+	 * precision a float has.
+	 */
+	Double,
+	
+	/**
+	 * Statistics are longs, for counters which should be summed exactly and
+	 * without any floating point conversions.
+	 */
+	Long;
+	
+}
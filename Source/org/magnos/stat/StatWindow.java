@@ -0,0 +1,339 @@
+/* 
+ * NOTICE OF LICENSE
+ * 
+ * This source file is subject to the Open Software License (OSL 3.0) that is 
+ * bundled with this package in the file LICENSE.txt. It is also available 
+ * through the world-wide-web at http://opensource.org/licenses/osl-3.0.php
+ * If you did not receive a copy of the license and are unable to obtain it 
+ * through the world-wide-web, please send an email to pdiffenderfer@gmail.com 
+ * so we can send you a copy immediately. If you use any of this software please
+ * notify me via my website or email, your feedback is much appreciated. 
+ * 
+ * @copyright   Copyright (c) 2011 Magnos Software (http://www.magnos.org)
+ * @license     http://opensource.org/licenses/osl-3.0.php
+ * 				Open Software License (OSL 3.0)
+ */
+
+package org.magnos.stat;
+
+/**
+ * A summary of the statistics added to a database over a sliding window of 
+ * recent time (like the last 10 seconds) which is kept in memory. The window
+ * is split into buckets of equal intervals, each statistic is added to the
+ * newest bucket and the oldest bucket is dropped when the window slides.
+ * 
+ * <pre>
+ * duration=10000, buckets=10
+ * | 1s | 1s | 1s | 1s | 1s | 1s | 1s | 1s | 1s | 1s (newest) |
+ * </pre>
+ * 
+ * The window is only changed by the StatService, it keeps the summary of all
+ * but the newest bucket so adding a statistic only updates the newest bucket
+ * and the summary of the whole window. The total, sum, minimum, and maximum
+ * of the window are published as a small immutable summary after every 
+ * change, so reading them never waits or locks. The complete point of the 
+ * window (with any histogram, distinct count, or aggregators) is only built
+ * when it's requested with getPoint. The window slides when statistics are
+ * added to the database or when the database is advanced by the 
+ * StatService, so the window of a database which is not scheduled (see 
+ * StatService.schedule) only slides when statistics are added.
+ * 
+ * @author Philip Diffenderfer
+ * @see StatDatabase#addWindow(long, int)
+ */
+public class StatWindow
+{
+	
+	// The format of the database of the window.
+	private final StatFormat format;
+	
+	// The interval of each bucket in milliseconds.
+	private final long interval;
+	
+	// The buckets of the window, the newest is at the bucket index modulo 
+	// the number of buckets.
+	private final StatPoint[] buckets;
+	
+	// The summary of all buckets except the newest.
+	private final StatPoint older;
+	
+	// The total, sum, minimum, and maximum of all buckets except the newest.
+	private long olderTotal;
+	private double olderSum;
+	private double olderMin;
+	private double olderMax;
+	
+	// The index of the newest bucket since the Unix epoch.
+	private long newest;
+	
+	// The last published summary of the window.
+	private volatile Summary summary;
+	
+	
+	/**
+	 * Instantiates a new StatWindow.
+	 * 
+	 * @param format
+	 * 		The format of the database of the window.
+	 * @param duration
+	 * 		The duration of the window in milliseconds.
+	 * @param buckets
+	 * 		The number of buckets the window is split into. More buckets make
+	 * 		the window slide more smoothly.
+	 * @throws IllegalArgumentException
+	 * 		The duration is not a positive multiple of the number of buckets.
+	 */
+	public StatWindow(StatFormat format, long duration, int buckets)
+	{
+		if (buckets <= 0 || duration < buckets || duration % buckets != 0) {
+			throw new IllegalArgumentException("Invalid window duration or buckets");
+		}
+		this.format = format;
+		this.interval = duration / buckets;
+		this.buckets = new StatPoint[buckets];
+		for (int i = 0; i < buckets; i++) {
+			this.buckets[i] = new StatPoint();
+			this.buckets[i].reset(format);
+		}
+		this.older = new StatPoint();
+		this.older.reset(format);
+		this.newest = System.currentTimeMillis() / interval;
+		this.summarize();
+		this.publish();
+	}
+	
+	/**
+	 * Adds the given event to the newest bucket of this window. This should
+	 * only be invoked by the StatService.
+	 * 
+	 * @param event
+	 * 		The event to add to the window.
+	 */
+	protected synchronized void addEvent(StatEvent event)
+	{
+		slide(event.getTime());
+		buckets[getBucket(newest)].addEvent(event);
+		publish();
+	}
+	
+	/**
+	 * Slides this window to the given time. This should only be invoked by 
+	 * the StatService.
+	 * 
+	 * @param time
+	 * 		The current time in milliseconds since the Unix epoch.
+	 */
+	protected synchronized void tick(long time)
+	{
+		if (slide(time)) {
+			publish();
+		}
+	}
+	
+	/**
+	 * Slides this window so the bucket of the given time is the newest, the
+	 * buckets which are no longer in the window are cleared and the summary
+	 * of the older buckets is computed again.
+	 * 
+	 * @return
+	 * 		True if the window slid, otherwise false.
+	 */
+	private boolean slide(long time)
+	{
+		long index = time / interval;
+		
+		// A statistic from before the newest bucket is added to it.
+		if (index <= newest) {
+			return false;
+		}
+		
+		long cleared = Math.min(index - newest, buckets.length);
+		for (long i = index - cleared + 1; i <= index; i++) {
+			buckets[getBucket(i)].reset(format);
+		}
+		newest = index;
+		
+		older.reset(format);
+		for (int i = 1; i < buckets.length; i++) {
+			older.merge(buckets[getBucket(newest - i)]);
+		}
+		summarize();
+		return true;
+	}
+	
+	/**
+	 * Computes the total, sum, minimum, and maximum of the older buckets.
+	 */
+	private void summarize()
+	{
+		olderTotal = older.getTotal();
+		olderSum = older.getSum();
+		olderMin = (olderTotal == 0 ? Double.NaN : older.getMinimum());
+		olderMax = (olderTotal == 0 ? Double.NaN : older.getMaximum());
+	}
+	
+	/**
+	 * Publishes the summary of the older buckets and the newest bucket.
+	 */
+	private void publish()
+	{
+		StatPoint bucket = buckets[getBucket(newest)];
+		long total = bucket.getTotal();
+		
+		double min = olderMin;
+		double max = olderMax;
+		if (total > 0) {
+			min = (Double.isNaN(min) ? bucket.getMinimum() : Math.min(min, bucket.getMinimum()));
+			max = (Double.isNaN(max) ? bucket.getMaximum() : Math.max(max, bucket.getMaximum()));
+		}
+		
+		summary = new Summary(olderTotal + total, olderSum + bucket.getSum(), min, max, newest);
+	}
+	
+	/**
+	 * Returns the bucket of the given index since the Unix epoch.
+	 */
+	private int getBucket(long index)
+	{
+		return (int)(index % buckets.length);
+	}
+	
+	/**
+	 * Returns a new point with the summary of the statistics in this window
+	 * as of the last time the window was changed, including any histogram,
+	 * distinct count, or aggregators of the format. The returned point is 
+	 * never modified. This can be invoked from any thread, but the 
+	 * StatService waits for the point to be built, so the total, sum, 
+	 * minimum, and maximum should be read with the methods of this window.
+	 * 
+	 * @return
+	 * 		The summary of the statistics in this window.
+	 */
+	public synchronized StatPoint getPoint()
+	{
+		StatPoint point = new StatPoint();
+		point.reset(format);
+		point.merge(older);
+		point.merge(buckets[getBucket(newest)]);
+		point.setStartTime((newest - buckets.length + 1) * interval);
+		point.setEndTime((newest + 1) * interval);
+		return point;
+	}
+	
+	/**
+	 * Returns the number of statistics in this window as of the last time the
+	 * window was changed. This never waits or locks.
+	 */
+	public long getTotal()
+	{
+		return summary.total;
+	}
+	
+	/**
+	 * Returns the sum of the statistics in this window as of the last time 
+	 * the window was changed, NaN if the format does not keep the sum. This
+	 * never waits or locks.
+	 */
+	public double getSum()
+	{
+		return summary.sum;
+	}
+	
+	/**
+	 * Returns the average of the statistics in this window as of the last 
+	 * time the window was changed. This never waits or locks.
+	 */
+	public double getAverage()
+	{
+		Summary current = summary;
+		
+		return current.sum / current.total;
+	}
+	
+	/**
+	 * Returns the smallest statistic in this window as of the last time the
+	 * window was changed, NaN if the window is empty or the format does not
+	 * keep it. This never waits or locks.
+	 */
+	public double getMin()
+	{
+		return summary.min;
+	}
+	
+	/**
+	 * Returns the largest statistic in this window as of the last time the
+	 * window was changed, NaN if the window is empty or the format does not
+	 * keep it. This never waits or locks.
+	 */
+	public double getMax()
+	{
+		return summary.max;
+	}
+	
+	/**
+	 * Returns the start time of this window as of the last time the window was
+	 * changed in milliseconds since the Unix epoch.
+	 */
+	public long getStartTime()
+	{
+		return (summary.newest - buckets.length + 1) * interval;
+	}
+	
+	/**
+	 * Returns the end time of this window as of the last time the window was
+	 * changed in milliseconds since the Unix epoch.
+	 */
+	public long getEndTime()
+	{
+		return (summary.newest + 1) * interval;
+	}
+	
+	/**
+	 * Returns the duration of this window in milliseconds.
+	 */
+	public long getDuration()
+	{
+		return interval * buckets.length;
+	}
+	
+	/**
+	 * Returns the interval of each bucket of this window in milliseconds.
+	 */
+	public long getInterval()
+	{
+		return interval;
+	}
+	
+	/**
+	 * Returns the number of buckets in this window.
+	 */
+	public int getBucketCount()
+	{
+		return buckets.length;
+	}
+	
+	/**
+	 * The total, sum, minimum, and maximum of the window after a change, a 
+	 * summary is never modified once it is published.
+	 */
+	private static class Summary
+	{
+		final long total;
+		final double sum;
+		final double min;
+		final double max;
+		
+		// The index of the newest bucket since the Unix epoch.
+		final long newest;
+		
+		Summary(long total, double sum, double min, double max, long newest)
+		{
+			this.total = total;
+			this.sum = sum;
+			this.min = min;
+			this.max = max;
+			this.newest = newest;
+		}
+	}
+	
+}
@@ -16,6 +16,11 @@
 
 package org.magnos.stat;
 
+import static org.junit.Assert.*;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
 import org.junit.Test;
 import org.magnos.service.Service;
 import org.magnos.stat.StatArchive;
@@ -64,6 +69,832 @@ public class TestStatArchive extends BaseTest
 		output(archive);
 	}
 	
+	@Test
+	public void testAligned()
+	{
+		StatService service = StatService.get();
+		service.waitFor(Service.Running);
+		
+		StatFormat format = new StatFormat(2);
+		format.set(0, 64, 16);
+		format.set(1, 1000, 10);
+		format.setAligned(true);
+		format.compile();
+		
+		StatDatabase data = StatDatabase.inMemory("aligned", format);
+		data.setEnable(true);
+		
+		for (StatArchive archive : data) {
+			assertEquals( 0, archive.getPointerTime() % archive.getInterval() );
+		}
+		
+		for (int i = 0; i < 100; i++) {
+			data.add(1f);
+			sleep(2);
+		}
+		sleep(200);
+		
+		for (StatArchive archive : data) {
+			assertEquals( 0, archive.getPointerTime() % archive.getInterval() );
+			
+			long total = 0;
+			for (StatPoint sp : archive) {
+				total += sp.getTotal();
+			}
+			assertEquals( 100, total );
+		}
+	}
+	
+	@Test
+	public void testColumns()
+	{
+		StatService service = StatService.get();
+		service.waitFor(Service.Running);
+		
+		StatFormat rowFormat = new StatFormat(1);
+		rowFormat.set(0, 20, 25);
+		rowFormat.setAligned(true);
+		rowFormat.compile();
+		
+		StatFormat columnFormat = new StatFormat(1);
+		columnFormat.set(0, 20, 25);
+		columnFormat.setAligned(true);
+		columnFormat.setLayout(StatLayout.Column);
+		columnFormat.compile();
+		
+		StatDatabase rows = StatDatabase.inMemory("rows", rowFormat);
+		rows.setEnable(true);
+		StatDatabase columns = StatDatabase.inMemory("columns", columnFormat);
+		columns.setEnable(true);
+		
+		for (int i = 0; i < 300; i++) {
+			StatEvent event = rows.getEvent(rnd.nextFloat());
+			event.addTarget(columns);
+			event.process();
+			sleep(1);
+		}
+		sleep(200);
+		
+		StatArchive rowArchive = rows.getArchive(0);
+		StatArchive columnArchive = columns.getArchive(0);
+		int count = rowArchive.getPointCount();
+		
+		long[] rowTotals = new long[count];
+		long[] columnTotals = new long[count];
+		double[] columnSums = new double[count];
+		float[] columnMins = new float[count];
+		float[] columnMaxs = new float[count];
+		
+		rowArchive.getTotals(rowTotals);
+		columnArchive.getTotals(columnTotals);
+		columnArchive.getSums(columnSums);
+		columnArchive.getMins(columnMins);
+		columnArchive.getMaxs(columnMaxs);
+		
+		assertArrayEquals( rowTotals, columnTotals );
+		
+		for (int i = 0; i < count; i++) {
+			StatPoint rowPoint = rowArchive.getPoint(i);
+			StatPoint columnPoint = columnArchive.getPoint(i);
+			
+			assertEquals( rowPoint.getTotal(), columnPoint.getTotal() );
+			assertEquals( rowPoint.getSum(), columnPoint.getSum(), 0.0000001 );
+			assertEquals( rowPoint.getMin(), columnPoint.getMin(), 0.0000001 );
+			assertEquals( rowPoint.getMax(), columnPoint.getMax(), 0.0000001 );
+			
+			assertEquals( rowPoint.getTotal(), columnTotals[i] );
+			assertEquals( rowPoint.getSum(), columnSums[i], 0.0000001 );
+			assertEquals( rowPoint.getMin(), columnMins[i], 0.0000001 );
+			assertEquals( rowPoint.getMax(), columnMaxs[i], 0.0000001 );
+		}
+		
+		try {
+			rowFormat.validate(columns.getStore());
+			fail("A column database should not validate with a row format");
+		}
+		catch (StatFormatException e) {
+			// expected
+		}
+		assertTrue( columnFormat.validate(columns.getStore()) );
+	}
+	
+	@Test
+	public void testRanges()
+	{
+		StatService service = StatService.get();
+		service.waitFor(Service.Running);
+		
+		StatFormat rowFormat = new StatFormat(1);
+		rowFormat.set(0, 20, 25);
+		rowFormat.compile();
+		
+		StatFormat columnFormat = new StatFormat(1);
+		columnFormat.set(0, 20, 25);
+		columnFormat.setLayout(StatLayout.Column);
+		columnFormat.compile();
+		
+		StatDatabase rows = StatDatabase.inMemory("rows", rowFormat);
+		rows.setEnable(true);
+		StatDatabase columns = StatDatabase.inMemory("columns", columnFormat);
+		columns.setEnable(true);
+		
+		for (int i = 0; i < 300; i++) {
+			StatEvent event = rows.getEvent(rnd.nextFloat());
+			event.addTarget(columns);
+			event.process();
+			sleep(1);
+		}
+		sleep(200);
+		
+		for (StatDatabase data : new StatDatabase[] {rows, columns}) {
+			StatArchive archive = data.getArchive(0);
+			int count = archive.getPointCount();
+			
+			long[] times = new long[count];
+			long[] totals = new long[count];
+			double[] sums = new double[count];
+			float[] maxs = new float[count];
+			archive.getTimes(times);
+			archive.getTotals(totals);
+			archive.getSums(sums);
+			archive.getMaxs(maxs);
+			
+			// Every range, including those which wrap around the archive.
+			for (int first = 0; first < count; first++) {
+				int length = count - first;
+				long[] rangeTimes = new long[length + 1];
+				long[] rangeTotals = new long[length + 1];
+				double[] rangeSums = new double[length + 1];
+				float[] rangeMaxs = new float[length + 1];
+				archive.getTimes(first, length, rangeTimes, 1);
+				archive.getTotals(first, length, rangeTotals, 1);
+				archive.getSums(first, length, rangeSums, 1);
+				archive.getMaxs(first, length, rangeMaxs, 1);
+				
+				for (int i = 0; i < length; i++) {
+					assertEquals( times[first + i], rangeTimes[i + 1] );
+					assertEquals( totals[first + i], rangeTotals[i + 1] );
+					assertEquals( sums[first + i], rangeSums[i + 1], 0.0 );
+					assertEquals( maxs[first + i], rangeMaxs[i + 1], 0.0 );
+				}
+			}
+			
+			// The iterator sets the times of the points.
+			int i = 0;
+			for (StatPoint point : archive) {
+				assertEquals( times[i], point.getStartTime() );
+				assertEquals( times[i] + archive.getInterval(), point.getEndTime() );
+				assertEquals( totals[i], point.getTotal() );
+				i++;
+			}
+			assertEquals( archive.getPointerTime(), times[count - 1] );
+			
+			try {
+				archive.getTotals(1, count, totals, 0);
+				fail("A range past the newest point should not be read");
+			}
+			catch (IndexOutOfBoundsException e) {
+				// expected
+			}
+		}
+	}
+	
+	@Test
+	public void testCursor()
+	{
+		StatService service = StatService.get();
+		service.waitFor(Service.Running);
+		
+		StatFormat format = new StatFormat(2);
+		format.set(0, 20, 25);
+		format.set(1, 100, 8);
+		format.setLayout(StatLayout.Column);
+		format.setCompactIndex(1);
+		format.compile();
+		
+		StatDatabase data = StatDatabase.inMemory("cursor", format);
+		data.setEnable(true);
+		
+		for (int i = 0; i < 200; i++) {
+			data.add(rnd.nextFloat());
+			sleep(1);
+		}
+		sleep(200);
+		
+		// One cursor scans both archives.
+		StatCursor cursor = new StatCursor();
+		assertFalse( cursor.next() );
+		
+		for (StatArchive archive : data) {
+			cursor.open(archive);
+			int i = 0;
+			while (cursor.next()) {
+				StatPoint point = archive.getPoint(i);
+				assertEquals( i, cursor.getIndex() );
+				assertEquals( point.getStartTime(), cursor.getStartTime() );
+				assertEquals( point.getEndTime(), cursor.getEndTime() );
+				assertEquals( point.getTotal(), cursor.getTotal() );
+				assertEquals( point.getSum(), cursor.getSum(), 0.0 );
+				assertEquals( point.getMin(), cursor.getMin(), 0.0 );
+				assertEquals( point.getMax(), cursor.getMax(), 0.0 );
+				i++;
+			}
+			assertEquals( archive.getPointCount(), i );
+			assertFalse( cursor.next() );
+		}
+	}
+	
+	@Test
+	public void testConsistentReads() throws InterruptedException
+	{
+		StatService service = StatService.get();
+		service.waitFor(Service.Running);
+		
+		StatFormat format = new StatFormat(1);
+		format.set(0, 10, 16);
+		format.setLayout(StatLayout.Column);
+		format.compile();
+		
+		final StatDatabase data = StatDatabase.inMemory("consistent", format);
+		data.setEnable(true);
+		
+		// Every statistic is 1 so the sum of each point is its total.
+		final AtomicInteger mismatches = new AtomicInteger();
+		final AtomicBoolean done = new AtomicBoolean();
+		Thread reader = new Thread() {
+			public void run() {
+				StatArchive archive = data.getArchive(0);
+				long[] totals = new long[16];
+				double[] sums = new double[16];
+				while (!done.get()) {
+					int start;
+					do {
+						start = archive.beginRead();
+						archive.getTotals(totals);
+						archive.getSums(sums);
+					} while (!archive.endRead(start));
+					
+					for (int i = 0; i < totals.length; i++) {
+						if (totals[i] != (long)sums[i]) {
+							mismatches.incrementAndGet();
+						}
+					}
+					StatPoint point = archive.getPoint(15);
+					if (point.getTotal() != (long)point.getSum()) {
+						mismatches.incrementAndGet();
+					}
+				}
+			}
+		};
+		reader.start();
+		
+		for (int i = 0; i < 50000; i++) {
+			data.add(1.0f);
+		}
+		sleep(500);
+		done.set(true);
+		reader.join();
+		
+		assertEquals( 0, mismatches.get() );
+	}
+	
+	@Test
+	public void testCompact()
+	{
+		StatService service = StatService.get();
+		service.waitFor(Service.Running);
+		
+		StatFormat format = new StatFormat(2);
+		format.set(0, 1000, 10);
+		format.set(1, 10000, 10);
+		format.setCompactIndex(1);
+		format.compile();
+		
+		assertEquals( StatFormat.POINT_SIZE, format.getPointSize(0) );
+		assertEquals( StatFormat.COMPACT_POINT_SIZE, format.getPointSize(1) );
+		
+		StatDatabase data = StatDatabase.inMemory("compact", format);
+		data.setEnable(true);
+		
+		for (int i = 0; i < 100; i++) {
+			data.add(rnd.nextFloat());
+		}
+		sleep(200);
+		
+		long[] totals = new long[10];
+		double[] sums = new double[10];
+		float[] mins = new float[10];
+		float[] maxs = new float[10];
+		
+		data.getArchive(1).getTotals(totals);
+		data.getArchive(1).getSums(sums);
+		data.getArchive(1).getMins(mins);
+		data.getArchive(1).getMaxs(maxs);
+		
+		long total = 0;
+		double sum = 0.0;
+		for (StatPoint sp : data.getArchive(0)) {
+			total += sp.getTotal();
+			sum += sp.getSum();
+		}
+		
+		assertEquals( 100, total );
+		assertEquals( total, totals[9] );
+		assertEquals( sum, sums[9], 0.001 );
+		assertTrue( mins[9] <= maxs[9] );
+		assertTrue( format.validate(data.getStore()) );
+	}
+	
+	@Test
+	public void testSquares()
+	{
+		StatService service = StatService.get();
+		service.waitFor(Service.Running);
+		
+		StatFormat format = new StatFormat(1);
+		format.set(0, 100000, 10);
+		format.setSquares(true);
+		format.compile();
+		
+		assertEquals( StatFormat.POINT_SIZE + 8, format.getPointSize(0) );
+		
+		StatDatabase data = StatDatabase.inMemory("squares", format);
+		data.setEnable(true);
+		
+		float[] values = {2, 4, 4, 4, 5, 5, 7, 9};
+		for (float value : values) {
+			data.add(value);
+		}
+		sleep(200);
+		
+		StatPoint newest = data.getArchive(0).getPoint(9);
+		assertEquals( 8, newest.getTotal() );
+		assertEquals( 5.0, newest.getAverage(), 0.0000001 );
+		assertEquals( 4.0, newest.getVariance(), 0.0000001 );
+		assertEquals( 2.0, newest.getStdDev(), 0.0000001 );
+		
+		double[] squares = new double[10];
+		data.getArchive(0).getSquares(squares);
+		assertEquals( 232.0, squares[9], 0.0000001 );
+		assertTrue( format.validate(data.getStore()) );
+		
+		// A format without squares has no variance.
+		StatFormat plain = new StatFormat(1);
+		plain.set(0, 100000, 10);
+		plain.compile();
+		
+		StatDatabase legacy = StatDatabase.inMemory("plain", plain);
+		assertTrue( Double.isNaN(legacy.getArchive(0).getPoint(9).getVariance()) );
+		
+		try {
+			plain.validate(data.getStore());
+			fail("A database with squares should not validate without squares");
+		}
+		catch (StatFormatException e) {
+			// expected
+		}
+	}
+	
+	@Test
+	public void testHistogram()
+	{
+		StatService service = StatService.get();
+		service.waitFor(Service.Running);
+		
+		// Values from 1 to 1024
+		StatFormat format = new StatFormat(2);
+		format.set(0, 100000, 10);
+		format.set(1, 1000000, 10);
+		format.setHistogram(1.0f, 10 * StatHistogram.SUB_BUCKETS);
+		format.setCompactIndex(1);
+		format.compile();
+		
+		assertEquals( StatFormat.POINT_SIZE + 320, format.getPointSize(0) );
+		
+		StatDatabase data = StatDatabase.inMemory("histogram", format);
+		data.setEnable(true);
+		
+		for (int i = 1; i <= 1000; i++) {
+			data.add(i);
+		}
+		sleep(200);
+		
+		for (int i = 0; i < 2; i++) {
+			StatPoint newest = data.getArchive(i).getPoint(9);
+			assertEquals( 1000, newest.getHistogram().getTotal() );
+			assertEquals( 500.0, newest.getQuantile(0.5), 500.0 / StatHistogram.SUB_BUCKETS );
+			assertEquals( 990.0, newest.getQuantile(0.99), 990.0 / StatHistogram.SUB_BUCKETS );
+			assertEquals( 1.0, newest.getQuantile(0.0), 0.0000001 );
+			assertEquals( 1000.0, newest.getQuantile(1.0), 0.0000001 );
+		}
+		assertTrue( format.validate(data.getStore()) );
+		
+		// Histograms of the same format merge their counts.
+		StatHistogram merged = new StatHistogram(1.0f, 10 * StatHistogram.SUB_BUCKETS);
+		merged.merge(data.getArchive(0).getPoint(9).getHistogram());
+		merged.merge(data.getArchive(1).getPoint(9).getHistogram());
+		assertEquals( 2000, merged.getTotal() );
+		assertEquals( 500.0, merged.getQuantile(0.5), 500.0 / StatHistogram.SUB_BUCKETS );
+		
+		// Counts stop at the largest int instead of overflowing.
+		StatHistogram saturated = new StatHistogram(1.0f, 10 * StatHistogram.SUB_BUCKETS);
+		saturated.add(1.0f);
+		for (int i = 0; i < 32; i++) {
+			saturated.merge(saturated);
+		}
+		saturated.add(1.0f);
+		assertEquals( Integer.MAX_VALUE, saturated.getCount(0) );
+		assertEquals( 1.0, saturated.getQuantile(0.5), 1.0 / StatHistogram.SUB_BUCKETS );
+		
+		// A point without a histogram has no quantiles.
+		StatFormat plain = new StatFormat(1);
+		plain.set(0, 100000, 10);
+		plain.compile();
+		
+		StatDatabase legacy = StatDatabase.inMemory("plain", plain);
+		assertNull( legacy.getArchive(0).getPoint(9).getHistogram() );
+		assertTrue( Double.isNaN(legacy.getArchive(0).getPoint(9).getQuantile(0.5)) );
+	}
+	
+	@Test
+	public void testHistogramTypes()
+	{
+		StatService service = StatService.get();
+		service.waitFor(Service.Running);
+		
+		StatFormat longFormat = new StatFormat(1);
+		longFormat.set(0, 100000, 10);
+		longFormat.setValueType(StatValue.Long);
+		longFormat.setHistogram(1.0f, 10 * StatHistogram.SUB_BUCKETS);
+		longFormat.compile();
+		
+		StatFormat doubleFormat = new StatFormat(1);
+		doubleFormat.set(0, 100000, 10);
+		doubleFormat.setValueType(StatValue.Double);
+		doubleFormat.setHistogram(1.0f, 10 * StatHistogram.SUB_BUCKETS);
+		doubleFormat.compile();
+		
+		// Without extremes the quantiles are not clamped.
+		StatFormat noExtremes = new StatFormat(1);
+		noExtremes.set(0, 100000, 10);
+		noExtremes.setExtremes(false);
+		noExtremes.setHistogram(1.0f, 10 * StatHistogram.SUB_BUCKETS);
+		noExtremes.compile();
+		
+		StatFormat[] formats = { longFormat, doubleFormat, noExtremes };
+		StatDatabase[] databases = new StatDatabase[formats.length];
+		for (int i = 0; i < formats.length; i++) {
+			databases[i] = StatDatabase.inMemory("histogram" + i, formats[i]);
+			databases[i].setEnable(true);
+		}
+		for (int i = 1; i <= 1000; i++) {
+			for (StatDatabase db : databases) {
+				db.add(i);
+			}
+		}
+		sleep(200);
+		
+		for (int i = 0; i < formats.length; i++) {
+			StatPoint newest = databases[i].getArchive(0).getPoint(9);
+			assertEquals( 1000, newest.getHistogram().getTotal() );
+			assertEquals( 500.0, newest.getQuantile(0.5), 500.0 / StatHistogram.SUB_BUCKETS );
+			assertEquals( 990.0, newest.getQuantile(0.99), 990.0 / StatHistogram.SUB_BUCKETS );
+		}
+		for (int i = 0; i < 2; i++) {
+			StatPoint newest = databases[i].getArchive(0).getPoint(9);
+			assertEquals( 1.0, newest.getQuantile(0.0), 0.0000001 );
+			assertEquals( 1000.0, newest.getQuantile(1.0), 0.0000001 );
+		}
+		StatPoint unclamped = databases[2].getArchive(0).getPoint(9);
+		assertTrue( Double.isNaN(unclamped.getMinimum()) );
+		assertEquals( 1.0, unclamped.getQuantile(0.0), 0.0000001 );
+		assertFalse( Double.isNaN(unclamped.getQuantile(1.0)) );
+	}
+	
+	@Test
+	public void testCardinality()
+	{
+		StatService service = StatService.get();
+		service.waitFor(Service.Running);
+		
+		StatFormat format = new StatFormat(2);
+		format.set(0, 100000, 10);
+		format.set(1, 1000000, 10);
+		format.setCardinality(12);
+		format.compile();
+		
+		assertEquals( StatFormat.POINT_SIZE + 4096, format.getPointSize(0) );
+		
+		StatDatabase data = StatDatabase.inMemory("distinct", format);
+		data.setEnable(true);
+		
+		// 5000 distinct items, each added twice.
+		for (int i = 0; i < 10000; i++) {
+			data.addHash(StatCardinality.mix(i % 5000));
+		}
+		sleep(500);
+		
+		for (int i = 0; i < 2; i++) {
+			StatPoint newest = data.getArchive(i).getPoint(9);
+			assertEquals( 10000, newest.getTotal() );
+			assertEquals( 5000.0, newest.getDistinct(), 5000.0 * 0.05 );
+		}
+		
+		// Merging estimates of the same items does not change the estimate.
+		StatCardinality merged = new StatCardinality(12);
+		merged.merge(data.getArchive(0).getPoint(9).getCardinality());
+		merged.merge(data.getArchive(1).getPoint(9).getCardinality());
+		assertEquals( data.getArchive(0).getPoint(9).getDistinct(), merged.getEstimate(), 0.0000001 );
+		
+		// Items counted in place match an estimate kept in memory.
+		StatCardinality memory = new StatCardinality(12);
+		for (int i = 0; i < 5000; i++) {
+			memory.add(StatCardinality.mix(i));
+		}
+		assertEquals( memory.getEstimate(), data.getArchive(0).getPoint(9).getDistinct(), 0.0000001 );
+		
+		// Small counts are exact enough.
+		StatCardinality small = new StatCardinality(12);
+		for (int i = 0; i < 10; i++) {
+			small.add(StatCardinality.mix(i));
+		}
+		assertEquals( 10.0, small.getEstimate(), 0.5 );
+		
+		// A plain statistic does not count an item.
+		data.add(1.0f);
+		sleep(200);
+		assertEquals( 10001, data.getArchive(0).getPoint(9).getTotal() );
+		assertEquals( 5000.0, data.getArchive(0).getPoint(9).getDistinct(), 5000.0 * 0.05 );
+		assertTrue( format.validate(data.getStore()) );
+	}
+	
+	@Test
+	public void testAggregators()
+	{
+		StatService service = StatService.get();
+		service.waitFor(Service.Running);
+		
+		// A counter only keeps the total of each point.
+		StatFormat counter = new StatFormat(1);
+		counter.set(0, 100000, 10);
+		counter.setSum(false);
+		counter.setExtremes(false);
+		counter.compile();
+		
+		assertEquals( 8, counter.getPointSize(0) );
+		
+		// A latency series keeps the last statistic as well.
+		StatFormat latency = new StatFormat(1);
+		latency.set(0, 100000, 10);
+		int last = latency.addAggregator(new StatLast());
+		latency.setLayout(StatLayout.Column);
+		latency.compile();
+		
+		assertEquals( StatFormat.POINT_SIZE + StatLast.SIZE, latency.getPointSize(0) );
+		
+		StatDatabase counts = StatDatabase.inMemory("counter", counter);
+		StatDatabase latencies = StatDatabase.inMemory("latency", latency);
+		counts.setEnable(true);
+		latencies.setEnable(true);
+		
+		for (int i = 1; i <= 10; i++) {
+			StatEvent event = counts.getEvent(i);
+			event.addTarget(latencies);
+			event.process();
+		}
+		sleep(200);
+		
+		StatPoint count = counts.getArchive(0).getPoint(9);
+		assertEquals( 10, count.getTotal() );
+		assertTrue( Double.isNaN(count.getSum()) );
+		assertTrue( Float.isNaN(count.getMax()) );
+		assertTrue( Double.isNaN(count.getAggregate(0)) );
+		
+		float[] maxs = new float[10];
+		counts.getArchive(0).getMaxs(maxs);
+		assertTrue( Float.isNaN(maxs[9]) );
+		
+		StatPoint latest = latencies.getArchive(0).getPoint(9);
+		assertEquals( 10, latest.getTotal() );
+		assertEquals( 55.0, latest.getSum(), 0.0000001 );
+		assertEquals( 10.0, latest.getAggregate(last), 0.0000001 );
+		assertEquals( 10.0, latest.getAggregate(StatLast.NAME), 0.0000001 );
+		assertTrue( Double.isNaN(latencies.getArchive(0).getPoint(0).getAggregate(last)) );
+		
+		assertTrue( counter.validate(counts.getStore()) );
+		assertTrue( latency.validate(latencies.getStore()) );
+	}
+	
+	@Test
+	public void testValueTypes()
+	{
+		StatService service = StatService.get();
+		service.waitFor(Service.Running);
+		
+		StatFormat longFormat = new StatFormat(2);
+		longFormat.set(0, 100000, 10);
+		longFormat.set(1, 1000000, 10);
+		longFormat.setValueType(StatValue.Long);
+		longFormat.setLayout(StatLayout.Column);
+		longFormat.setCompactIndex(1);
+		longFormat.compile();
+		
+		StatFormat doubleFormat = new StatFormat(1);
+		doubleFormat.set(0, 100000, 10);
+		doubleFormat.setValueType(StatValue.Double);
+		doubleFormat.compile();
+		
+		assertEquals( 32, longFormat.getPointSize(0) );
+		assertEquals( StatFormat.COMPACT_POINT_SIZE, longFormat.getPointSize(1) );
+		assertEquals( 32, doubleFormat.getPointSize(0) );
+		
+		StatDatabase longs = StatDatabase.inMemory("longs", longFormat);
+		StatDatabase doubles = StatDatabase.inMemory("doubles", doubleFormat);
+		longs.setEnable(true);
+		doubles.setEnable(true);
+		
+		// Beyond the 24 bits of precision of a float.
+		long base = (1L << 40) + 1;
+		long expectedSum = 0;
+		for (int i = 0; i < 5; i++) {
+			longs.addLong(base + i);
+			expectedSum += base + i;
+		}
+		doubles.addDouble(0.1);
+		doubles.addDouble(16777217.0);
+		sleep(200);
+		
+		StatPoint longPoint = longs.getArchive(0).getPoint(9);
+		assertEquals( StatValue.Long, longPoint.getValueType() );
+		assertEquals( 5, longPoint.getTotal() );
+		assertEquals( expectedSum, longPoint.getLongSum() );
+		assertEquals( base, longPoint.getLongMin() );
+		assertEquals( base + 4, longPoint.getLongMax() );
+		
+		long[] sums = new long[10];
+		longs.getArchive(0).getSums(sums);
+		assertEquals( expectedSum, sums[9] );
+		
+		double[] maxs = new double[10];
+		longs.getArchive(0).getMaxs(maxs);
+		assertEquals( base + 4, (long)maxs[9] );
+		
+		// The compact archive keeps floats.
+		assertEquals( 5, longs.getArchive(1).getPoint(9).getTotal() );
+		assertEquals( expectedSum, longs.getArchive(1).getPoint(9).getSum(), expectedSum * 0.000001 );
+		
+		StatPoint doublePoint = doubles.getArchive(0).getPoint(9);
+		assertEquals( 0.1, doublePoint.getMinimum(), 0.0 );
+		assertEquals( 16777217.0, doublePoint.getMaximum(), 0.0 );
+		assertEquals( 16777217.1, doublePoint.getSum(), 0.0000001 );
+		
+		assertTrue( longFormat.validate(longs.getStore()) );
+		assertTrue( doubleFormat.validate(doubles.getStore()) );
+	}
+	
+	@Test
+	public void testMerge()
+	{
+		StatService service = StatService.get();
+		service.waitFor(Service.Running);
+		
+		StatFormat format = new StatFormat(2);
+		format.set(0, 100000, 10);
+		format.set(1, 1000000, 10);
+		format.setHistogram(1.0f, 8 * StatHistogram.SUB_BUCKETS);
+		format.compile();
+		
+		StatDatabase agent = StatDatabase.inMemory("agent", format);
+		StatDatabase summary = StatDatabase.inMemory("summary", format);
+		StatDatabase total = StatDatabase.inMemory("total", format);
+		agent.setEnable(true);
+		summary.setEnable(true);
+		total.setEnable(true);
+		
+		// Pre-aggregated summaries
+		summary.add(10, 55.0, 1.0f, 10.0f);
+		summary.add(5, 10.0, 0.5f, 4.0f);
+		
+		for (int i = 1; i <= 100; i++) {
+			agent.add(i);
+		}
+		sleep(200);
+		
+		StatPoint summed = summary.getArchive(1).getPoint(9);
+		assertEquals( 15, summed.getTotal() );
+		assertEquals( 65.0, summed.getSum(), 0.0000001 );
+		assertEquals( 0.5, summed.getMin(), 0.0000001 );
+		assertEquals( 10.0, summed.getMax(), 0.0000001 );
+		
+		// Hierarchical aggregation of both databases.
+		total.merge(agent.getArchive(0).getPoint(9));
+		total.merge(summary.getArchive(0).getPoint(9));
+		sleep(200);
+		
+		StatPoint merged = total.getArchive(0).getPoint(9);
+		assertEquals( 115, merged.getTotal() );
+		assertEquals( 5115.0, merged.getSum(), 0.0000001 );
+		assertEquals( 0.5, merged.getMin(), 0.0000001 );
+		assertEquals( 100.0, merged.getMax(), 0.0000001 );
+		assertEquals( 100, merged.getHistogram().getTotal() );
+		assertEquals( 50.0, merged.getQuantile(0.5), 50.0 / StatHistogram.SUB_BUCKETS );
+		
+		assertNull( total.add(0, 0.0, 0.0f, 0.0f) );
+		assertTrue( format.validate(total.getStore()) );
+	}
+	
+	@Test
+	public void testFunctions()
+	{
+		StatService service = StatService.get();
+		service.waitFor(Service.Running);
+		
+		StatFormat format = new StatFormat(3);
+		format.set(0, 100000, 10);
+		format.set(1, 1000000, 10, StatFunction.Max);
+		format.set(2, 10000000, 10, StatFunction.Sum);
+		format.compile();
+		
+		assertEquals( StatPoint.SIZE, format.getPointSize(0) );
+		assertEquals( 12, format.getPointSize(1) );
+		assertEquals( 16, format.getPointSize(2) );
+		assertTrue( format.hasFunction(1, StatFunction.Max) );
+		assertFalse( format.hasFunction(1, StatFunction.Min) );
+		assertFalse( format.hasFunction(0, StatFunction.Squares) );
+		
+		StatDatabase data = StatDatabase.inMemory("functions", format);
+		data.setEnable(true);
+		data.add(2.0f);
+		data.add(5.0f);
+		data.add(3.0f);
+		sleep(200);
+		
+		StatPoint full = data.getArchive(0).getPoint(9);
+		assertEquals( 3, full.getTotal() );
+		assertEquals( 10.0, full.getSum(), 0.0 );
+		assertEquals( 2.0, full.getMin(), 0.0 );
+		assertEquals( 5.0, full.getMax(), 0.0 );
+		
+		StatPoint maxed = data.getArchive(1).getPoint(9);
+		assertEquals( 3, maxed.getTotal() );
+		assertEquals( 5.0, maxed.getMax(), 0.0 );
+		assertTrue( Double.isNaN(maxed.getSum()) );
+		assertTrue( Double.isNaN(maxed.getMin()) );
+		
+		StatPoint summed = data.getArchive(2).getPoint(9);
+		assertEquals( 3, summed.getTotal() );
+		assertEquals( 10.0, summed.getSum(), 0.0 );
+		assertTrue( Double.isNaN(summed.getMin()) );
+		assertTrue( Double.isNaN(summed.getMax()) );
+		
+		float[] mins = new float[10];
+		data.getArchive(1).getMins(mins);
+		assertTrue( Float.isNaN(mins[9]) );
+		
+		assertTrue( format.validate(data.getStore()) );
+		
+		// Archives with fewer functions are a different format.
+		StatFormat plain = new StatFormat(3);
+		plain.set(0, 100000, 10);
+		plain.set(1, 1000000, 10);
+		plain.set(2, 10000000, 10);
+		plain.compile();
+		
+		try {
+			plain.validate(data.getStore());
+			fail("A database with fewer functions should not validate with all functions");
+		}
+		catch (StatFormatException e) {
+			// expected
+		}
+	}
+	
+	@Test
+	public void testLongGap()
+	{
+		StatService service = StatService.get();
+		service.waitFor(Service.Running);
+		
+		StatFormat format = new StatFormat(1);
+		format.set(0, 10, 10);
+		format.compile();
+		
+		StatDatabase data = StatDatabase.inMemory("gap", format);
+		data.setEnable(true);
+		data.add(1.0f);
+		sleep(200);
+		
+		// A gap of more than 2^31 points clears every point.
+		StatArchive archive = data.getArchive(0);
+		long time = archive.getPointerTime() + (1L << 40) * 10 + 5;
+		data.tick(time);
+		
+		assertEquals( time - 5, archive.getPointerTime() );
+		for (StatPoint sp : archive) {
+			assertEquals( 0, sp.getTotal() );
+		}
+	}
+	
 	private void output(StatArchive archive) 
 	{
 		for (StatPoint sp : archive) {
@@ -18,20 +18,30 @@ package org.magnos.stat;
 
 import static org.junit.Assert.*;
 
+import java.util.Arrays;
 import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 
 import org.junit.Before;
 import org.junit.Test;
 import org.magnos.data.store.factory.MemoryStoreFactory;
 import org.magnos.stat.StatArchive;
+import org.magnos.stat.StatCache;
 import org.magnos.stat.StatDatabase;
+import org.magnos.stat.StatDecay;
+import org.magnos.stat.StatDownsample;
 import org.magnos.stat.StatEvent;
+import org.magnos.stat.StatExpression;
 import org.magnos.stat.StatFormat;
 import org.magnos.stat.StatGroup;
 import org.magnos.stat.StatPoint;
+import org.magnos.stat.StatSeries;
 import org.magnos.stat.StatService;
 import org.magnos.stat.StatTarget;
+import org.magnos.stat.StatWindow;
 import org.magnos.test.BaseTest;
 
 public class TestStatDatabase extends BaseTest 
@@ -109,6 +119,538 @@ public class TestStatDatabase extends BaseTest
 		}
 	}
 	
+	@Test
+	public void testTick()
+	{
+		float[] data = {3.5f};
+		
+		StatDatabase db4 = group.take("db4");
+		db4.add(data[0]);
+		waitForEvents(db4);
+		
+		StatArchive archive = db4.getArchive(0);
+		long pointerTime = archive.getPointerTime();
+		
+		service.setTickResolution(10);
+		service.schedule(group);
+		sleep(500);
+		service.unschedule(group);
+		service.setTickResolution(StatService.DEFAULT_TICK_RESOLUTION);
+		
+		assertTrue( archive.getPointerTime() > pointerTime );
+		contains(data, archive);
+		
+		Set<StatDatabase> dbs = group.delete(StatTarget.All);
+		for (StatDatabase db : dbs) {
+			assertFalse( db.exists() );
+		}
+	}
+	
+	@Test
+	public void testCounter()
+	{
+		StatFormat counter = new StatFormat(1);
+		counter.set(0, 60000, 10);
+		counter.setCounter(true);
+		counter.compile();
+		
+		StatDatabase db5 = StatDatabase.inMemory("db5", counter);
+		db5.setEnable(true);
+		
+		// The first reading only starts the counter.
+		db5.addLong(1000);
+		sleep(100);
+		db5.addLong(2000);
+		sleep(100);
+		// The counter was reset.
+		db5.addLong(500);
+		waitForEvents(db5);
+		
+		long total = 0;
+		float min = Float.MAX_VALUE;
+		float max = -Float.MAX_VALUE;
+		for (StatPoint sp : db5.getArchive(0)) {
+			total += sp.getTotal();
+			if (sp.getTotal() > 0) {
+				min = Math.min(min, sp.getMin());
+				max = Math.max(max, sp.getMax());
+			}
+		}
+		
+		// Around 10000/s and 5000/s.
+		assertEquals( 2, total );
+		assertTrue( min > 2000 && min < 6000 );
+		assertTrue( max > 4000 && max < 11000 );
+	}
+	
+	@Test
+	public void testWindow()
+	{
+		StatDatabase db6 = StatDatabase.inMemory("db6", format);
+		db6.setEnable(true);
+		
+		StatWindow window = db6.addWindow(400, 4);
+		assertEquals( 100, window.getInterval() );
+		assertEquals( 0, window.getPoint().getTotal() );
+		assertEquals( 0, window.getTotal() );
+		assertTrue( Double.isNaN(window.getMin()) );
+		
+		db6.add(1.0f);
+		db6.add(2.0f);
+		db6.add(3.0f);
+		waitForEvents(db6);
+		
+		StatPoint recent = window.getPoint();
+		assertEquals( 3, recent.getTotal() );
+		assertEquals( 6.0, recent.getSum(), 0.000001 );
+		assertEquals( 1.0, recent.getMin(), 0.000001 );
+		assertEquals( 3.0, recent.getMax(), 0.000001 );
+		assertEquals( 400, recent.getEndTime() - recent.getStartTime() );
+		
+		// The summary is published without building a point.
+		assertEquals( 3, window.getTotal() );
+		assertEquals( 6.0, window.getSum(), 0.000001 );
+		assertEquals( 2.0, window.getAverage(), 0.000001 );
+		assertEquals( 1.0, window.getMin(), 0.000001 );
+		assertEquals( 3.0, window.getMax(), 0.000001 );
+		assertEquals( recent.getEndTime(), window.getEndTime() );
+		assertEquals( 400, window.getEndTime() - window.getStartTime() );
+		
+		// The earlier statistics slide out of the window.
+		sleep(500);
+		db6.add(10.0f);
+		waitForEvents(db6);
+		
+		StatPoint slid = window.getPoint();
+		assertEquals( 1, slid.getTotal() );
+		assertEquals( 10.0, slid.getMin(), 0.000001 );
+		assertEquals( 10.0, slid.getMax(), 0.000001 );
+		assertEquals( 1, window.getTotal() );
+		assertEquals( 10.0, window.getMin(), 0.000001 );
+		assertEquals( 10.0, window.getMax(), 0.000001 );
+		
+		// The point read earlier is never modified.
+		assertEquals( 3, recent.getTotal() );
+		
+		try {
+			db6.addWindow(1000, 3);
+			fail("A window duration must be a multiple of its buckets");
+		}
+		catch (IllegalArgumentException e) {
+			// expected
+		}
+	}
+	
+	@Test
+	public void testDecay()
+	{
+		StatDatabase db7 = StatDatabase.inMemory("db7", format);
+		db7.setEnable(true);
+		
+		StatDecay decay = new StatDecay(1000, 10000);
+		db7.setDecay(decay);
+		assertTrue( Double.isNaN(decay.getAverage(0)) );
+		
+		for (int i = 0; i < 10; i++) {
+			db7.add(5.0f);
+		}
+		waitForEvents(db7);
+		
+		assertEquals( 10, decay.getTotal() );
+		assertEquals( 5.0, decay.getAverage(0), 0.000001 );
+		assertEquals( 5.0, decay.getAverage(1), 0.000001 );
+		
+		db7.add(15.0f);
+		waitForEvents(db7);
+		
+		// The shorter period follows the newest statistic more closely.
+		assertTrue( decay.getAverage(0) > decay.getAverage(1) );
+		assertTrue( decay.getAverage(1) > 5.0 && decay.getAverage(0) < 15.0 );
+		
+		// The rates decay when no statistics are added.
+		long now = System.currentTimeMillis();
+		assertTrue( decay.getRate(0, now) > 0.0 );
+		assertTrue( decay.getRate(0, now + 60000) < 0.000001 );
+		assertTrue( decay.getRate(1, now + 60000) > decay.getRate(0, now + 60000) );
+		
+		db7.setDecay(null);
+		db7.add(15.0f);
+		waitForEvents(db7);
+		assertEquals( 11, decay.getTotal() );
+	}
+	
+	@Test
+	public void testDecaySameTime()
+	{
+		StatDecay decay = new StatDecay(1000, 10000);
+		
+		// Statistics added in the same millisecond all count equally.
+		StatEvent event = new StatEvent(1.0f);
+		decay.addEvent(event);
+		decay.addEvent(event.derive(3.0));
+		decay.addEvent(event.derive(5.0));
+		
+		assertEquals( 3, decay.getTotal() );
+		assertEquals( 3.0, decay.getAverage(0), 0.000001 );
+		assertEquals( 3.0, decay.getAverage(1), 0.000001 );
+		
+		// An older statistic weighs less than a newer one.
+		decay.addEvent(new StatEvent(9.0f));
+		sleep(500);
+		decay.addEvent(new StatEvent(1.0f));
+		assertTrue( decay.getAverage(0) < (3.0 * 3 + 9.0 + 1.0) / 5.0 );
+	}
+	
+	@Test
+	public void testFetch()
+	{
+		StatDatabase db8 = StatDatabase.inMemory("db8", format);
+		db8.setEnable(true);
+		
+		for (int i = 0; i < 10; i++) {
+			db8.add(i);
+		}
+		waitForEvents(db8);
+		
+		StatArchive fine = db8.getArchive(0);
+		assertEquals( fine.getPointerTime(), fine.getPoint(39).getStartTime() );
+		assertEquals( fine.getPointerTime() - 50 * 39, fine.getPoint(0).getStartTime() );
+		
+		long end = fine.getEndTime();
+		
+		// The finest archive holds the last second.
+		StatSeries recent = db8.fetch(end - 1000, end, 0);
+		assertEquals( 20, recent.getSize() );
+		assertEquals( 10, sum(recent.getTotals()) );
+		assertEquals( end, recent.getEndTime(19) );
+		for (int i = 0; i < recent.getSize(); i++) {
+			assertEquals( 50, recent.getEndTime(i) - recent.getStartTime(i) );
+		}
+		
+		// The coarse archive holds what the finest archive does not.
+		StatSeries stitched = db8.fetch(end - 30000, end, 0);
+		assertEquals( 10, sum(stitched.getTotals()) );
+		assertEquals( 1000, stitched.getEndTime(0) - stitched.getStartTime(0) );
+		assertEquals( 50, stitched.getEndTime(stitched.getSize() - 1) - stitched.getStartTime(stitched.getSize() - 1) );
+		for (int i = 1; i < stitched.getSize(); i++) {
+			assertTrue( stitched.getEndTime(i - 1) <= stitched.getStartTime(i) );
+		}
+		assertTrue( stitched.getStartTime(0) <= end - 30000 );
+		
+		// Too many points in the finest archive.
+		StatSeries coarse = db8.fetch(end - 30000, end, 40);
+		assertTrue( coarse.getSize() <= 31 );
+		assertEquals( 10, sum(coarse.getTotals()) );
+		double min = Double.MAX_VALUE;
+		double max = -Double.MAX_VALUE;
+		for (int i = 0; i < coarse.getSize(); i++) {
+			if (coarse.getTotal(i) > 0) {
+				min = Math.min(min, coarse.getMin(i));
+				max = Math.max(max, coarse.getMax(i));
+			}
+		}
+		assertEquals( 0.0, min, 0.000001 );
+		assertEquals( 9.0, max, 0.000001 );
+		
+		assertEquals( 0, db8.fetch(end + 1000, end + 2000, 0).getSize() );
+	}
+	
+	@Test
+	public void testSnapshot()
+	{
+		StatDatabase db9 = StatDatabase.inMemory("db9", format);
+		db9.setEnable(true);
+		
+		float[] data = random(10);
+		for (float x : data) {
+			db9.add(x);
+		}
+		waitForEvents(db9);
+		
+		StatDatabase snapshot = db9.snapshot();
+		assertFalse( snapshot.isEnabled() );
+		assertEquals( db9.getName(), snapshot.getName() );
+		assertTrue( db9.getStore() != snapshot.getStore() );
+		assertEquals( db9.getArchive(0).getPointerTime(), snapshot.getArchive(0).getPointerTime() );
+		
+		// Statistics added after the snapshot are not in it.
+		db9.add(100.0f);
+		waitForEvents(db9);
+		
+		for (int i = 0; i < format.getArchiveCount(); i++) {
+			contains(data, snapshot.getArchive(i));
+		}
+		assertEquals( data.length, sum(snapshot.fetch(0, Long.MAX_VALUE, 0).getTotals()) );
+		assertEquals( data.length + 1, sum(db9.fetch(0, Long.MAX_VALUE, 0).getTotals()) );
+		assertTrue( format.validate(snapshot.getStore()) );
+		
+		group.add(db9);
+		Set<StatDatabase> snapshots = group.snapshot(StatTarget.This);
+		assertEquals( 1, snapshots.size() );
+		assertEquals( data.length + 1, sum(snapshots.iterator().next().fetch(0, Long.MAX_VALUE, 0).getTotals()) );
+		group.remove(db9);
+	}
+	
+	@Test
+	public void testAggregate()
+	{
+		StatDatabase[] dbs = { group.take("aggA"), group.take("aggB"), group.take("aggC") };
+		
+		float[] data = random(30);
+		float min = Float.MAX_VALUE;
+		float max = -Float.MAX_VALUE;
+		for (int i = 0; i < data.length; i++) {
+			dbs[i % dbs.length].add(data[i]);
+			min = Math.min(min, data[i]);
+			max = Math.max(max, data[i]);
+		}
+		waitForEvents(dbs);
+		
+		long start = System.currentTimeMillis() / 1000 * 1000 - 5000;
+		long end = start + 10000;
+		
+		StatSeries local = group.aggregate(start, end, 1000);
+		assertEquals( 10, local.getSize() );
+		assertEquals( data.length, sum(local.getTotals()) );
+		
+		ExecutorService executor = Executors.newFixedThreadPool(2);
+		try {
+			StatSeries series = group.aggregate(start, end, 1000, StatTarget.This, executor);
+			assertEquals( 10, series.getSize() );
+			assertEquals( data.length, sum(series.getTotals()) );
+			assertEquals( start, series.getStartTime(0) );
+			assertEquals( end, series.getEndTime(9) );
+			
+			double seriesMin = Double.MAX_VALUE;
+			double seriesMax = -Double.MAX_VALUE;
+			for (int i = 0; i < series.getSize(); i++) {
+				assertEquals( local.getTotal(i), series.getTotal(i) );
+				if (series.getTotal(i) > 0) {
+					seriesMin = Math.min(seriesMin, series.getMin(i));
+					seriesMax = Math.max(seriesMax, series.getMax(i));
+				}
+			}
+			assertEquals( min, seriesMin, 0.000001 );
+			assertEquals( max, seriesMax, 0.000001 );
+		}
+		finally {
+			executor.shutdown();
+		}
+		
+		for (StatDatabase db : dbs) {
+			group.remove(db);
+		}
+	}
+	
+	@Test
+	public void testCache()
+	{
+		StatDatabase db10 = StatDatabase.inMemory("db10", format);
+		db10.setEnable(true);
+		
+		for (int i = 0; i < 10; i++) {
+			db10.add(i);
+		}
+		waitForEvents(db10);
+		
+		StatCache cache = new StatCache(2, 1 << 20);
+		long end = Long.MAX_VALUE;
+		
+		StatSeries first = cache.fetch(db10, 0, end, 0);
+		assertSame( first, cache.fetch(db10, 0, end, 0) );
+		assertEquals( 1, cache.getHits() );
+		assertEquals( 1, cache.getMisses() );
+		assertEquals( 1, cache.getSize() );
+		assertEquals( StatCache.SERIES_SIZE + first.getSize() * StatCache.POINT_SIZE, cache.getBytes() );
+		
+		// A new statistic changes the version of the archives.
+		int version = db10.getArchive(0).getVersion();
+		db10.add(10);
+		waitForEvents(db10);
+		assertTrue( db10.getArchive(0).getVersion() != version );
+		
+		StatSeries second = cache.fetch(db10, 0, end, 0);
+		assertTrue( first != second );
+		assertEquals( 11, sum(second.getTotals()) );
+		assertEquals( 1, cache.getSize() );
+		
+		// The least recently used series is dropped.
+		cache.fetch(db10, 1, end, 0);
+		cache.fetch(db10, 2, end, 0);
+		assertEquals( 2, cache.getSize() );
+		assertTrue( second != cache.fetch(db10, 0, end, 0) );
+		
+		// A range which ends before the newest point is kept as statistics
+		// are added, it's only read from the coarse archive.
+		StatCache history = new StatCache(10, 1 << 20);
+		long closed = db10.getArchive(1).getPointerTime();
+		StatSeries past = history.fetch(db10, closed - 10000, closed, 10);
+		assertEquals( 10, past.getSize() );
+		db10.add(11);
+		waitForEvents(db10);
+		assertSame( past, history.fetch(db10, closed - 10000, closed, 10) );
+		
+		// A series larger than the cache is not cached.
+		StatCache small = new StatCache(10, StatCache.SERIES_SIZE);
+		small.fetch(db10, 0, end, 0);
+		assertEquals( 0, small.getSize() );
+		
+		// An aggregate is read again when the group's databases change.
+		StatDatabase[] dbs = { group.take("cacheA"), group.take("cacheB") };
+		dbs[0].add(1.0f);
+		dbs[1].add(2.0f);
+		waitForEvents(dbs);
+		
+		long start = System.currentTimeMillis() / 1000 * 1000 - 5000;
+		StatSeries aggregate = cache.aggregate(group, start, start + 10000, 1000, StatTarget.This, null);
+		assertEquals( 2, sum(aggregate.getTotals()) );
+		assertSame( aggregate, cache.aggregate(group, start, start + 10000, 1000, StatTarget.This, null) );
+		
+		group.remove(dbs[1]);
+		StatSeries removed = cache.aggregate(group, start, start + 10000, 1000, StatTarget.This, null);
+		assertEquals( 1, sum(removed.getTotals()) );
+		
+		group.remove(dbs[0]);
+	}
+	
+	@Test
+	public void testDownsample()
+	{
+		StatSeries series = new StatSeries(0, 10, 100);
+		for (int i = 0; i < series.getSize(); i++) {
+			series.getTotals()[i] = 2;
+			series.getSums()[i] = 2 * (i % 10);
+			series.getMins()[i] = i % 10 - 1;
+			series.getMaxs()[i] = i % 10 + 1;
+		}
+		// A spike the triangles should keep, and an empty point.
+		series.getSums()[55] = 2000;
+		series.getTotals()[70] = 0;
+		
+		StatSeries consolidated = series.downsample(10, StatDownsample.Consolidate);
+		assertEquals( 10, consolidated.getSize() );
+		assertEquals( sum(series.getTotals()), sum(consolidated.getTotals()) );
+		for (int i = 0; i < consolidated.getSize(); i++) {
+			assertEquals( i * 100, consolidated.getStartTime(i) );
+			assertEquals( i * 100 + 100, consolidated.getEndTime(i) );
+			assertEquals( (i == 7 ? 0.0 : -1.0), consolidated.getMin(i), 0.000001 );
+			assertEquals( 10.0, consolidated.getMax(i), 0.000001 );
+		}
+		assertEquals( 20, consolidated.getTotal(0) );
+		assertEquals( 4.5, consolidated.getAverage(0), 0.000001 );
+		assertEquals( 18, consolidated.getTotal(7) );
+		
+		StatSeries triangles = series.downsample(10, StatDownsample.LargestTriangle);
+		assertEquals( 10, triangles.getSize() );
+		assertEquals( 0, triangles.getStartTime(0) );
+		assertEquals( 990, triangles.getStartTime(9) );
+		boolean spike = false;
+		for (int i = 0; i < triangles.getSize(); i++) {
+			assertTrue( triangles.getTotal(i) > 0 );
+			spike |= (triangles.getStartTime(i) == 550);
+			if (i > 0) {
+				assertTrue( triangles.getStartTime(i - 1) < triangles.getStartTime(i) );
+			}
+		}
+		assertTrue( spike );
+		
+		assertSame( series, series.downsample(100, StatDownsample.LargestTriangle) );
+		
+		StatDatabase db11 = StatDatabase.inMemory("db11", format);
+		db11.setEnable(true);
+		for (int i = 0; i < 10; i++) {
+			db11.add(i);
+		}
+		waitForEvents(db11);
+		
+		long end = db11.getArchive(0).getEndTime();
+		StatSeries fetched = db11.fetch(end - 60000, end, 5, StatDownsample.Consolidate);
+		assertTrue( fetched.getSize() <= 5 );
+		assertEquals( 10, sum(fetched.getTotals()) );
+	}
+	
+	@Test
+	public void testExpression()
+	{
+		StatDatabase errors = group.take("exprErrors");
+		StatDatabase requests = group.take("exprRequests");
+		for (int i = 0; i < 10; i++) {
+			requests.add(1.0f);
+			if (i < 2) {
+				errors.add(1.0f);
+			}
+		}
+		waitForEvents(errors, requests);
+		
+		long start = System.currentTimeMillis() / 1000 * 1000 - 5000;
+		long end = start + 10000;
+		
+		StatExpression requestTotal = StatExpression.total(requests);
+		double[] totals = requestTotal.evaluate(start - 2000, end, 1000);
+		assertEquals( 12, totals.length );
+		assertEquals( 10.0, sum(totals), 0.000001 );
+		
+		StatExpression percent = StatExpression.scale(StatExpression.divide(StatExpression.total(errors), requestTotal), 100);
+		double[] percents = percent.evaluate(start, end, 1000);
+		assertEquals( 10, percents.length );
+		double errorTotal = 0.0;
+		for (int i = 0; i < percents.length; i++) {
+			if (totals[i + 2] == 0) {
+				assertTrue( Double.isNaN(percents[i]) );
+			} else {
+				errorTotal += percents[i] * totals[i + 2] / 100.0;
+			}
+		}
+		assertEquals( 2.0, errorTotal, 0.000001 );
+		
+		assertEquals( 10.0, sum(StatExpression.rate(requestTotal).evaluate(start, end, 1000)), 0.000001 );
+		assertEquals( 12.0, sum(StatExpression.totalOf(group, "expr*", StatTarget.This).evaluate(start, end, 1000)), 0.000001 );
+		assertEquals( 10.0, sum(StatExpression.sumOf(group, "*Requests", StatTarget.This).evaluate(start, end, 1000)), 0.000001 );
+		
+		// The moving average reads the points before the range, and shares
+		// its reference with the other side of the subtraction.
+		StatExpression smooth = StatExpression.movingAverage(requestTotal, 3);
+		double[] difference = StatExpression.subtract(requestTotal, smooth).evaluate(start, end, 1000);
+		for (int i = 0; i < difference.length; i++) {
+			double average = (totals[i] + totals[i + 1] + totals[i + 2]) / 3.0;
+			assertEquals( totals[i + 2] - average, difference[i], 0.000001 );
+		}
+		
+		// Expressions sharing a reference can be evaluated by several threads.
+		final StatExpression shared = requestTotal;
+		final StatExpression shifted = StatExpression.movingAverage(requestTotal, 2);
+		final long from = start;
+		final double[] expectedShared = shared.evaluate(from - 2000, end, 1000);
+		final double[] expectedShifted = shifted.evaluate(from, end, 1000);
+		final AtomicBoolean failed = new AtomicBoolean();
+		
+		Thread other = new Thread() {
+			public void run() {
+				for (int i = 0; i < 200; i++) {
+					if (!Arrays.equals(expectedShifted, shifted.evaluate(from, from + 10000, 1000))) {
+						failed.set(true);
+					}
+				}
+			}
+		};
+		other.start();
+		for (int i = 0; i < 200; i++) {
+			if (!Arrays.equals(expectedShared, shared.evaluate(from - 2000, from + 10000, 1000))) {
+				failed.set(true);
+			}
+		}
+		try {
+			other.join();
+		}
+		catch (InterruptedException e) {
+			fail("Interrupted");
+		}
+		assertFalse( failed.get() );
+		
+		group.remove(errors);
+		group.remove(requests);
+	}
+	
 	
 	private void contains(float[] data, StatArchive archive) {
 		long dataTotal = data.length;
@@ -138,6 +680,22 @@ public class TestStatDatabase extends BaseTest
 		assertEquals( pointMax, dataMax, 0.000001 );
 	}
 	
+	private long sum(long[] values) {
+		long sum = 0;
+		for (long x : values) {
+			sum += x;
+		}
+		return sum;
+	}
+	
+	private double sum(double[] values) {
+		double sum = 0;
+		for (double x : values) {
+			sum += x;
+		}
+		return sum;
+	}
+	
 	private void waitForEvents(StatDatabase ... dbs) {
 		sleep(100);
 		do {
@@ -0,0 +1,61 @@
+/* 
+ * NOTICE OF LICENSE
+ * 
+ * This source file is subject to the Open Software License (OSL 3.0) that is 
+ * bundled with this package in the file LICENSE.txt. It is also available 
+ * through the world-wide-web at http://opensource.org/licenses/osl-3.0.php
+ * If you did not receive a copy of the license and are unable to obtain it 
+ * through the world-wide-web, please send an email to pdiffenderfer@gmail.com 
+ * so we can send you a copy immediately. If you use any of this software please
+ * notify me via my website or email, your feedback is much appreciated. 
+ * 
+ * @copyright   Copyright (c) 2011 Magnos Software (http://www.magnos.org)
+ * @license     http://opensource.org/licenses/osl-3.0.php
+ * 				Open Software License (OSL 3.0)
+ */
+
+package org.magnos.stat;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+import org.magnos.stat.StatFormat;
+import org.magnos.stat.StatFormatException;
+import org.magnos.test.BaseTest;
+
+
+public class TestStatFormat extends BaseTest 
+{
+
+	@Test
+	public void testSize()
+	{
+		StatFormat format = new StatFormat(2);
+		format.set(0, 1000, 60);
+		format.set(1, 60000, 10);
+		format.compile();
+		
+		int expected = StatFormat.DATABASE_HEADER_SIZE + 
+				2 * StatFormat.ARCHIVE_HEADER_SIZE + 
+				70 * StatFormat.POINT_SIZE;
+		
+		assertEquals( expected, format.getDatabaseSize() );
+	}
+	
+	@Test
+	public void testTooLarge()
+	{
+		// One point every 100ms for two years.
+		StatFormat format = new StatFormat(1);
+		format.set(0, 100, 2 * 366 * 24 * 60 * 60 * 10);
+		
+		try {
+			format.compile();
+			fail("A database over 2GB should not compile");
+		}
+		catch (StatFormatException e) {
+			// expected
+		}
+	}
+	
+}
@@ -18,11 +18,13 @@ package org.magnos.stat;
 
 import static org.junit.Assert.*;
 
+import java.io.File;
 import java.util.Set;
 
 import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.magnos.data.store.factory.FileStoreFactory;
+import org.magnos.data.store.factory.MemoryStoreFactory;
 import org.magnos.stat.StatDatabase;
 import org.magnos.stat.StatFormat;
 import org.magnos.stat.StatGroup;
@@ -170,4 +172,48 @@ public class TestStatGroup extends BaseTest
 		assertFalse( group.exists() );
 	}
 	
+	@Test @Ordered(index=6)
+	public void testFind()
+	{
+		StatGroup found = new StatGroup("find");
+		found.setFactory(new MemoryStoreFactory());
+		found.setFormatDefault(format);
+		
+		found.take("rrd1");
+		found.take("rrd2");
+		StatGroup c1 = found.getChild("c1");
+		c1.take("db1");
+		c1.take("db2");
+		
+		assertEquals( 2, found.find("rrd*").size() );
+		assertEquals( 2, found.find("r?d?").size() );
+		assertEquals( 1, found.find("*2").size() );
+		assertEquals( 0, found.find("rrd").size() );
+		assertEquals( 0, found.find("db*").size() );
+		assertEquals( 2, found.find("db*", StatTarget.All).size() );
+		assertEquals( 4, found.find("*", StatTarget.All).size() );
+		assertTrue( found.find("*1", StatTarget.All).contains(found.get("rrd1")) );
+		
+		// A database from another directory can share a name.
+		StatDatabase other = StatDatabase.inMemory("other" + File.separator + "rrd1", format);
+		found.add(other);
+		assertEquals( 2, found.find("rrd1").size() );
+		assertEquals( 3, found.find("rrd*").size() );
+		found.remove(other);
+		assertEquals( 1, found.find("rrd1").size() );
+		
+		StatDatabase rrd1 = found.remove("rrd1");
+		assertEquals( 1, found.find("rrd*").size() );
+		assertEquals( 0, found.find("rrd1").size() );
+		
+		StatDatabase rrd1b = found.take("rrd1");
+		assertTrue( rrd1 != rrd1b );
+		assertEquals( 1, found.find("rrd1").size() );
+		assertTrue( found.find("rrd1").contains(rrd1b) );
+		
+		found.delete(StatTarget.All);
+		
+		assertEquals( 0, found.find("*", StatTarget.All).size() );
+	}
+	
 }